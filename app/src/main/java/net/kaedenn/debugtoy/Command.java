@@ -2,6 +2,8 @@ package net.kaedenn.debugtoy;
 
 import androidx.annotation.NonNull;
 
+import net.kaedenn.debugtoy.util.ArgSchema;
+
 import org.jetbrains.annotations.NotNull;
 
 import java.util.function.Consumer;
@@ -12,12 +14,17 @@ import java.util.function.Consumer;
  *
  * See {@link Command#Command(String, Consumer, String)}.
  *
- * Commands are {@link java.util.function.Consumer} instances accepting a single
- * {@code String} parameter with the {@code mArgs} bound to the command. This
- * string may be empty (or even {@code null}) if no parameters are bound.
+ * Commands are {@link java.util.function.Consumer} instances accepting a
+ * {@link CommandContext}. The context carries the arguments for one run of
+ * the command, along with its output and cancellation state.
+ *
+ * A command may declare its arguments with an {@link ArgSchema}. The
+ * arguments are then checked before the command runs, the command reads
+ * typed values from {@link CommandContext#getValues()}, and {@code help}
+ * describes the arguments.
  *
- * Commands take a single argument: a {@code java.lang.String}. This argument
- * is bound via the {@link Command#bindArgument} method.
+ * Commands are immutable definitions: nothing about a particular run is
+ * stored in the command, so one command may run on several threads at once.
  *
  * No special handling is provided for specific command strings or command
  * strings starting with special characters. Such things are the responsibility
@@ -26,13 +33,14 @@ import java.util.function.Consumer;
  * @see java.util.function.Consumer
  */
 @SuppressWarnings("unused")
-class Command {
+final class Command {
     @NonNull
     private final String mCommand;
     @NonNull
-    private final Consumer<String> mAction;
-    private String mHelpText;
-    private String mArgs;
+    private final Consumer<CommandContext> mAction;
+    private final String mHelpText;
+    private final ArgSchema mSchema;
+    private final boolean mImmediate;
 
     /** Construct a command without help text.
      *
@@ -40,23 +48,52 @@ class Command {
      * creating quick testing commands.
      *
      * @param command The command string to register
-     * @param function A {@code Consumer<String>} instance
+     * @param function A {@code Consumer<CommandContext>} instance
      */
-    Command(String command, @NotNull Consumer<String> function) {
+    Command(String command, @NotNull Consumer<CommandContext> function) {
         this(command, function, "This function has no help text.");
     }
 
     /** Construct a command.
      *
      * @param command The command string to register
-     * @param function A {@code Consumer<String>} instance
+     * @param function A {@code Consumer<CommandContext>} instance
+     * @param help A help string to display when the user wants help text
+     */
+    Command(@NonNull String command, @NotNull Consumer<CommandContext> function, String help) {
+        this(command, function, help, false);
+    }
+
+    /** Construct a command which may run immediately.
+     *
+     * Immediate commands run on the thread submitting them rather than on a
+     * worker thread. They must be quick, as they hold up the UI.
+     *
+     * @param command The command string to register
+     * @param function A {@code Consumer<CommandContext>} instance
      * @param help A help string to display when the user wants help text
+     * @param immediate True to run the command on the submitting thread
      */
-    Command(@NonNull String command, @NotNull Consumer<String> function, String help) {
+    Command(@NonNull String command, @NotNull Consumer<CommandContext> function, String help, boolean immediate) {
+        this(command, function, help, null, immediate);
+    }
+
+    /** Construct a command with declared arguments.
+     *
+     * @param command The command string to register
+     * @param function A {@code Consumer<CommandContext>} instance
+     * @param help A help string to display when the user wants help text
+     * @param schema The command's arguments, or {@code null} to pass the
+     * arguments string unchecked
+     * @param immediate True to run the command on the submitting thread
+     */
+    Command(@NonNull String command, @NotNull Consumer<CommandContext> function, String help,
+            ArgSchema schema, boolean immediate) {
         mCommand = command;
         mAction = function;
         mHelpText = help;
-        mArgs = "";
+        mSchema = schema;
+        mImmediate = immediate;
     }
 
     /** Obtain the command's name.
@@ -75,33 +112,30 @@ class Command {
         return mHelpText;
     }
 
-    /** Change the command's help text.
+    /** Obtain the command's declared arguments.
      *
-     * @param helpText The new help text to use
+     * @return The argument schema, or {@code null} if the command takes an
+     * unchecked arguments string
      */
-    void setHelpText(String helpText) { mHelpText = helpText; }
+    ArgSchema getSchema() {
+        return mSchema;
+    }
 
-    /** Add an argument to pass to the consumer.
-     *
-     * The {@code mArgs} are passed as {@code String} to the consumer function
-     * in the same order as they're bound. Note that consumer functions may be
-     * called with an empty array if no {@code mArgs} have been bound.
+    /** Return whether or not the command runs on the submitting thread.
      *
-     * @param arg The argument to add to the list of {@code mArgs}.
+     * @return True if the command runs immediately, false if it runs on a
+     * worker thread.
      */
-    void bindArgument(String arg) {
-        mArgs = arg;
+    boolean isImmediate() {
+        return mImmediate;
     }
 
-    /** Execute the consumer function.
+    /** Execute the consumer function for one run of the command.
      *
-     * This function calls the consumer's {@code apply} method with the bound
-     * {@code mArgs} as an array. If no {@code mArgs} have been bound, then an
-     * empty array is passed instead. It is up to the function to determine what
-     * to do with the {@code mArgs}.
+     * @param context The run's arguments, output, and cancellation state.
      */
-    void execute() {
-        mAction.accept(mArgs == null ? "" : mArgs);
+    void execute(@NonNull CommandContext context) {
+        mAction.accept(context);
     }
 }
 
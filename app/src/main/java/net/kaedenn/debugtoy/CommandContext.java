@@ -0,0 +1,242 @@
+package net.kaedenn.debugtoy;
+
+import androidx.annotation.NonNull;
+
+import net.kaedenn.debugtoy.util.ArgSchema;
+import net.kaedenn.debugtoy.util.CommandStats;
+import net.kaedenn.debugtoy.util.LinePipe;
+
+import java.util.function.Consumer;
+
+/** State belonging to a single run of a command.
+ *
+ * A {@link Command} is only a definition; everything that differs between
+ * runs lives here. Each run gets its own context carrying the parsed
+ * command line (and, for commands declaring an {@link ArgSchema}, the
+ * typed argument values), where to write output, and whether the run has
+ * been cancelled. The same command may therefore run on several threads at
+ * once, or from inside another command, without runs seeing each other's
+ * arguments.
+ *
+ * Cancelling a run sets the context's flag and interrupts the thread
+ * running it. Commands looping over many items should check
+ * {@link #isCancelled()}; commands blocked in a wait see the interrupt.
+ *
+ * In a pipeline such as {@code env | grep PATH}, each stage gets its own
+ * context. A stage reads the previous stage's output with
+ * {@link #readLine()}, and its own output goes to the next stage through a
+ * {@link LinePipe} rather than to the debug output. A stage counts as
+ * cancelled when the whole pipeline is, or when the next stage has stopped
+ * reading (as {@code head} does once it has printed enough).
+ *
+ * Lines printed are counted in the command's {@link CommandStats}, if the
+ * context is given one.
+ *
+ * A command reports that it failed with {@link #fail}, or by throwing.
+ * Failed runs are counted in the command's statistics, and stop a script
+ * run with {@code set -e}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+final class CommandContext {
+    @NonNull
+    private final Invocation mInvocation;
+    private final ArgSchema.Values mValues;
+    @NonNull
+    private final Consumer<CharSequence> mOutput;
+    private final LinePipe mInput;
+    private final LinePipe mOutputPipe;
+    private final CommandContext mParent;
+    private final CommandStats mStats;
+    private volatile boolean mCancelled = false;
+    private volatile boolean mFailed = false;
+
+    /** Construct a context for one run of a command.
+     *
+     * @param invocation The parsed command line.
+     * @param output Receives the command's output lines; must be safe to
+     * call from any thread.
+     */
+    CommandContext(@NonNull Invocation invocation, @NonNull Consumer<CharSequence> output) {
+        this(invocation, null, output);
+    }
+
+    /** Construct a context for one run of a command with typed arguments.
+     *
+     * @param invocation The parsed command line.
+     * @param values The arguments, already checked against the command's
+     * schema, or {@code null} if the command has no schema.
+     * @param output Receives the command's output lines; must be safe to
+     * call from any thread.
+     */
+    CommandContext(@NonNull Invocation invocation, ArgSchema.Values values,
+                   @NonNull Consumer<CharSequence> output) {
+        this(invocation, values, null, output);
+    }
+
+    /** Construct a context for one run of a command, counting its output.
+     *
+     * @param invocation The parsed command line.
+     * @param values The arguments, already checked against the command's
+     * schema, or {@code null} if the command has no schema.
+     * @param stats Counts the lines printed, or {@code null}.
+     * @param output Receives the command's output lines; must be safe to
+     * call from any thread.
+     */
+    CommandContext(@NonNull Invocation invocation, ArgSchema.Values values, CommandStats stats,
+                   @NonNull Consumer<CharSequence> output) {
+        mInvocation = invocation;
+        mValues = values;
+        mOutput = output;
+        mInput = null;
+        mOutputPipe = null;
+        mParent = null;
+        mStats = stats;
+    }
+
+    /** Construct a context for one stage of a pipeline.
+     *
+     * @param invocation The stage's parsed command line.
+     * @param values The stage's arguments, or {@code null}.
+     * @param input The previous stage's output, or {@code null} for the
+     * first stage.
+     * @param output The next stage's input, or {@code null} for the last
+     * stage, whose output goes where the pipeline's does.
+     * @param pipeline The context of the whole pipeline.
+     * @param stats Counts the lines the stage prints, or {@code null}.
+     */
+    CommandContext(@NonNull Invocation invocation, ArgSchema.Values values,
+                   LinePipe input, LinePipe output, @NonNull CommandContext pipeline, CommandStats stats) {
+        mInvocation = invocation;
+        mValues = values;
+        mOutput = pipeline.mOutput;
+        mInput = input;
+        mOutputPipe = output;
+        mParent = pipeline;
+        mStats = stats;
+    }
+
+    /** Get the parsed command line.
+     *
+     * @return The invocation.
+     */
+    @NonNull
+    Invocation getInvocation() {
+        return mInvocation;
+    }
+
+    /** Get the context of the pipeline or script running this command.
+     *
+     * @return The enclosing context, or {@code null} if the command was
+     * entered on its own.
+     */
+    CommandContext getParent() {
+        return mParent;
+    }
+
+    /** Get the arguments string.
+     *
+     * @return The arguments, or the empty string if there are none.
+     */
+    @NonNull
+    String getArgs() {
+        return mInvocation.getArgs();
+    }
+
+    /** Get the typed arguments.
+     *
+     * @return The argument values, or {@code null} if the command does not
+     * declare an {@link ArgSchema}.
+     */
+    ArgSchema.Values getValues() {
+        return mValues;
+    }
+
+    /** Write a line of output.
+     *
+     * @param text The line to write.
+     */
+    void print(CharSequence text) {
+        if (mStats != null) {
+            mStats.addOutput(text);
+        }
+        if (mOutputPipe == null) {
+            mOutput.accept(text);
+            return;
+        }
+        try {
+            mOutputPipe.write(text);
+        } catch (InterruptedException e) {
+            /* Leave the interrupt for the command to see */
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Write a formatted line of output.
+     *
+     * @param format The format string.
+     * @param args The format arguments.
+     */
+    void print(String format, Object... args) {
+        print(String.format(format, args));
+    }
+
+    /** Write a formatted error and mark the run as failed.
+     *
+     * The command should return soon afterwards.
+     *
+     * @param format The format string.
+     * @param args The format arguments.
+     */
+    void fail(String format, Object... args) {
+        mFailed = true;
+        print(String.format(format, args));
+    }
+
+    /** Mark the run as failed without printing anything. */
+    void setFailed() {
+        mFailed = true;
+    }
+
+    /** Return whether or not the run failed.
+     *
+     * @return True if the command reported a failure or threw.
+     */
+    boolean isFailed() {
+        return mFailed;
+    }
+
+    /** Return whether or not the command has input from a previous stage.
+     *
+     * @return True if the command is reading another command's output.
+     */
+    boolean hasInput() {
+        return mInput != null;
+    }
+
+    /** Read the next line of input, waiting for the previous stage.
+     *
+     * @return The line, or {@code null} at the end of the input or if there
+     * is no input.
+     * @throws InterruptedException If the run was cancelled while waiting.
+     */
+    CharSequence readLine() throws InterruptedException {
+        return (mInput == null) ? null : mInput.read();
+    }
+
+    /** Return whether or not the run has been cancelled.
+     *
+     * @return True if the run should stop as soon as possible.
+     */
+    boolean isCancelled() {
+        return mCancelled || (mParent != null && mParent.isCancelled())
+                || (mOutputPipe != null && mOutputPipe.isReadClosed());
+    }
+
+    /** Mark the run as cancelled.
+     *
+     * This only sets the flag; the executor interrupts the running thread.
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+}
@@ -0,0 +1,354 @@
+package net.kaedenn.debugtoy;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import net.kaedenn.debugtoy.util.Logf;
+import net.kaedenn.debugtoy.util.OutputBuffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Runs debug commands on a bounded pool of worker threads.
+ *
+ * Each submitted command becomes a {@link Task}: a {@code Future} carrying
+ * the command line and a small job number, which the {@code cancel} command
+ * uses to identify it. Cancelling a task marks its {@link CommandContext}
+ * as cancelled and interrupts its worker thread; commands performing long
+ * waits should treat an interrupt as a request to stop. A cancelled task
+ * remains pending until its command actually returns, so the pool limits
+ * still count a command which is slow to notice the cancellation.
+ *
+ * A task may be given an {@link OutputBuffer} receiving its output, which
+ * lets the output be held while the task runs in the background and shown
+ * later.
+ *
+ * At most {@code threads} commands run at once and at most {@code queued}
+ * more wait for a free worker. Submitting beyond that fails with a
+ * {@link RejectedExecutionException} rather than growing the queue.
+ *
+ * Tasks submitted as background jobs are further limited to fewer than
+ * {@code threads} at once, so long-running jobs never take every worker and
+ * commands submitted in the foreground still run promptly.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+final class CommandExecutor {
+    private static final String LOG_TAG = "command-executor";
+    static {
+        Logf.getInstance().add(CommandExecutor.class, LOG_TAG);
+    }
+
+    /** Receives task lifecycle notifications.
+     *
+     * Notifications arrive on the worker thread, except that cancelling a
+     * task which has not started notifies on the cancelling thread.
+     */
+    interface Listener {
+        /** Called when a task starts running. */
+        void onTaskStarted(Task task);
+
+        /** Called when a task completes, fails, or is cancelled.
+         *
+         * A cancelled task which was running is reported once its command
+         * returns.
+         *
+         * @param task The finished task.
+         * @param error The exception the command threw, or {@code null}.
+         */
+        void onTaskFinished(Task task, Throwable error);
+    }
+
+    /** A submitted command. */
+    final class Task extends FutureTask<Void> {
+        private final int mId;
+        private final CommandContext mContext;
+        private final OutputBuffer mOutput;
+        private final boolean mBackground;
+        private volatile long mStartTime = 0;
+        private volatile Throwable mError = null;
+        private final AtomicBoolean mFinished = new AtomicBoolean(false);
+
+        private Task(int id, CommandContext context, Runnable action, OutputBuffer output, boolean background) {
+            super(action, null);
+            mId = id;
+            mContext = context;
+            mOutput = output;
+            mBackground = background;
+        }
+
+        /** Get the task's job number.
+         *
+         * @return The job number.
+         */
+        int getId() {
+            return mId;
+        }
+
+        /** Get the command line the task is running.
+         *
+         * @return The command line.
+         */
+        @NonNull
+        String getCommandLine() {
+            return mContext.getInvocation().getLine();
+        }
+
+        /** Get the context of the run the task is performing.
+         *
+         * @return The command context.
+         */
+        @NonNull
+        CommandContext getContext() {
+            return mContext;
+        }
+
+        /** Get the buffer receiving the task's output.
+         *
+         * @return The output buffer, or {@code null} if the task was
+         * submitted without one.
+         */
+        OutputBuffer getOutput() {
+            return mOutput;
+        }
+
+        /** Return whether or not the task was submitted as a background job.
+         *
+         * @return True if the task counts against the background job limit.
+         */
+        boolean isBackground() {
+            return mBackground;
+        }
+
+        /** Return whether or not the task has started running.
+         *
+         * @return True if a worker has picked up the task.
+         */
+        boolean isStarted() {
+            return mStartTime != 0;
+        }
+
+        /** Get how long the task has been running.
+         *
+         * @return The elapsed time in milliseconds, or 0 if the task has not
+         * started yet.
+         */
+        long getElapsedMillis() {
+            long start = mStartTime;
+            return (start == 0) ? 0 : SystemClock.elapsedRealtime() - start;
+        }
+
+        /** Return whether or not the task's command has returned.
+         *
+         * Unlike {@link #isDone()}, this is false for a cancelled task whose
+         * command is still running.
+         *
+         * @return True if the task is no longer pending.
+         */
+        boolean isFinished() {
+            return mFinished.get();
+        }
+
+        @Override
+        public void run() {
+            mStartTime = SystemClock.elapsedRealtime();
+            try {
+                if (!isDone()) {
+                    mListener.onTaskStarted(this);
+                }
+                super.run();
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            /* Set the flag first so the command sees it when interrupted */
+            mContext.cancel();
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mPool.remove(this)) {
+                /* Never started, so run() will not report it */
+                finish();
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            mError = t;
+            super.setException(t);
+        }
+
+        /* Stop tracking the task and report it, once */
+        private void finish() {
+            if (mFinished.compareAndSet(false, true)) {
+                mTasks.remove(mId);
+                if (mBackground) {
+                    mBackgroundCount.decrementAndGet();
+                }
+                mListener.onTaskFinished(this, mError);
+            }
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format("[%d] %s", mId, getCommandLine());
+        }
+    }
+
+    private final ThreadPoolExecutor mPool;
+    private final Listener mListener;
+
+    /* Background tasks queued or running, and the most allowed */
+    private final int mMaxBackground;
+    private final AtomicInteger mBackgroundCount = new AtomicInteger(0);
+
+    /* Tasks queued or running, by job number */
+    private final ConcurrentSkipListMap<Integer, Task> mTasks = new ConcurrentSkipListMap<>();
+    private final AtomicInteger mNextId = new AtomicInteger(1);
+
+    /** Construct an executor.
+     *
+     * @param threads The number of commands that may run at once.
+     * @param queued The number of commands that may wait for a worker.
+     * @param maxBackground The number of background jobs that may be
+     * queued or running; at most {@code threads - 1} are allowed, so that
+     * at least one worker is always left for other commands.
+     * @param listener Receives task notifications.
+     */
+    CommandExecutor(int threads, int queued, int maxBackground, @NonNull Listener listener) {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        mListener = listener;
+        mMaxBackground = Math.max(0, Math.min(maxBackground, threads - 1));
+        mPool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queued), r -> {
+                    Thread t = new Thread(r, "debug-cmd-" + threadNumber.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /** Submit a command to run on a worker thread.
+     *
+     * @param context The context of the run, which cancelling the task
+     * marks as cancelled.
+     * @param action The code to run.
+     * @return The task running the command.
+     * @throws RejectedExecutionException If too many commands are pending
+     * or the executor has been shut down.
+     */
+    Task submit(@NonNull CommandContext context, @NonNull Runnable action) {
+        return submit(context, action, null, false);
+    }
+
+    /** Submit a command whose output goes to a buffer.
+     *
+     * @param context The context of the run, which cancelling the task
+     * marks as cancelled.
+     * @param action The code to run.
+     * @param output The buffer the context writes to, or {@code null}.
+     * @param background True to submit the command as a background job.
+     * @return The task running the command.
+     * @throws RejectedExecutionException If too many commands, or too many
+     * background jobs, are pending, or the executor has been shut down.
+     */
+    Task submit(@NonNull CommandContext context, @NonNull Runnable action, OutputBuffer output,
+                boolean background) {
+        if (background && !reserveBackground()) {
+            throw new RejectedExecutionException(String.format("%d background jobs already running", mMaxBackground));
+        }
+        Task task = new Task(mNextId.getAndIncrement(), context, action, output, background);
+        mTasks.put(task.getId(), task);
+        try {
+            mPool.execute(task);
+        } catch (RejectedExecutionException e) {
+            mTasks.remove(task.getId());
+            if (background) {
+                mBackgroundCount.decrementAndGet();
+            }
+            throw e;
+        }
+        Logf.dc("Submitted %s", task);
+        return task;
+    }
+
+    /* Count a new background task, unless there are already too many */
+    private boolean reserveBackground() {
+        while (true) {
+            int count = mBackgroundCount.get();
+            if (count >= mMaxBackground) {
+                return false;
+            }
+            if (mBackgroundCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Get the most background jobs that may be pending at once.
+     *
+     * @return The background job limit.
+     */
+    int getMaxBackground() {
+        return mMaxBackground;
+    }
+
+    /** Get a queued or running task.
+     *
+     * @param id The task's job number.
+     * @return The task, or {@code null} if no such task is pending.
+     */
+    Task getTask(int id) {
+        return mTasks.get(id);
+    }
+
+    /** Get the queued and running tasks, ordered by job number.
+     *
+     * @return A snapshot of the pending tasks.
+     */
+    @NonNull
+    Collection<Task> getTasks() {
+        return new ArrayList<>(mTasks.values());
+    }
+
+    /** Get the number of queued and running tasks.
+     *
+     * @return The number of pending tasks.
+     */
+    int getPendingCount() {
+        return mTasks.size();
+    }
+
+    /** Cancel every queued and running task.
+     *
+     * @return The number of tasks cancelled.
+     */
+    int cancelAll() {
+        int count = 0;
+        for (Task task : mTasks.values()) {
+            if (task.cancel(true)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /** Cancel all tasks and stop the worker threads. */
+    void shutdown() {
+        cancelAll();
+        for (Runnable r : mPool.shutdownNow()) {
+            /* Queued tasks the pool will never run */
+            ((Task) r).finish();
+        }
+    }
+}
@@ -1,27 +1,128 @@
 package net.kaedenn.debugtoy;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Objects;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.ScrollView;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 
+import net.kaedenn.debugtoy.util.ArgSchema;
+import net.kaedenn.debugtoy.util.CommandHistory;
+import net.kaedenn.debugtoy.util.CommandStats;
+import net.kaedenn.debugtoy.util.LinePipe;
+import net.kaedenn.debugtoy.util.LineRing;
+import net.kaedenn.debugtoy.util.LogCapture;
 import net.kaedenn.debugtoy.util.Logf;
+import net.kaedenn.debugtoy.util.OutputBuffer;
+import net.kaedenn.debugtoy.util.PrefixTrie;
+import net.kaedenn.debugtoy.util.Res;
+import net.kaedenn.debugtoy.util.Str;
+import net.kaedenn.debugtoy.util.Tokenizer;
 
 import org.jetbrains.annotations.NotNull;
 
-/** Controller for the primary debug text box and the command box below it.
+/** Controller for the primary debug output and the command box below it.
  *
  * This class manages registering mCommands entered in the command box
- * with their actions and help text.
+ * with their actions and help text. Commands are kept in a
+ * {@link PrefixTrie}, so a command may be abbreviated to any prefix which
+ * names it unambiguously, and pressing tab in the command box completes the
+ * command name.
+ *
+ * Commands registered with an {@link ArgSchema} have their arguments checked
+ * before they are queued; invalid arguments are reported along with the
+ * command's usage, and the command does not run.
  *
  * If the help text is omitted, then the default resource string
  * {@code cmd_help_default} is used.
+ *
+ * Output passed to {@link #debug(CharSequence)} is buffered and added to the
+ * output view at most once per frame. This keeps commands printing many lines
+ * from triggering a relayout for every line, and lets any thread print
+ * output.
+ *
+ * The output view is a list of lines backed by a {@link LineRing}, limited
+ * by the {@code debugScrollbackMaxLines} and {@code debugScrollbackMaxChars}
+ * resources. Only the visible lines are laid out, and the oldest lines are
+ * discarded once the limits are reached, so adding output takes the same
+ * time however long the session has run.
+ *
+ * Commands run on a small pool of worker threads (see
+ * {@link CommandExecutor}) so that slow commands never block the UI. A
+ * progress indicator is shown while any command is pending, and the special
+ * {@code cancel} command interrupts pending commands.
+ *
+ * A command line ending in {@code &} runs as a background job: its output is
+ * held in the job's own bounded {@link OutputBuffer} rather than shown, and
+ * the command box is free for other commands meanwhile. {@code jobs} lists
+ * the jobs, {@code fg} shows a job's held output and then its further
+ * output as it arrives, {@code bg} holds a running job's output again, and
+ * {@code kill} cancels a job. The output of a finished background job is
+ * kept for a few jobs, until shown. At most {@code debugBackgroundJobs}
+ * background jobs are pending at once, always fewer than the workers, so
+ * commands typed while they run are not stuck behind them.
+ *
+ * Commands may be joined into pipelines with {@code |}, as in
+ * {@code env | grep PATH | head 20}. Lines stream from each command to the
+ * next through bounded pipes, so large outputs can be narrowed by the
+ * filter commands (see {@link FilterCommands}) before they reach the
+ * output view.
+ *
+ * Every run of a command is measured: its wall time (kept in a
+ * {@link net.kaedenn.debugtoy.util.LatencyHistogram}), the CPU time of the
+ * thread running it, and the lines and bytes it prints. The {@code stats}
+ * command reports these, as a table or as CSV.
+ *
+ * Lines submitted from the command box are kept in a {@link CommandHistory}.
+ * In the command box, up and down recall earlier entries and Ctrl+R
+ * searches backwards for entries containing the text typed. {@code !!},
+ * {@code !N}, and {@code !-N} at the start of a line are replaced by an
+ * earlier entry, and the {@code history} command lists entries.
+ *
+ * The {@code source} command runs a file of commands on a worker thread;
+ * see {@link ScriptRunner}. The {@code watch} command re-runs a command
+ * periodically, replacing its previous output in place; see
+ * {@link Watcher}. Output replaced this way occupies a {@link Region} of
+ * the output view.
+ *
+ * The {@code logs} command is registered automatically when the controller
+ * is given a {@link LogCapture} to query.
  */
 @SuppressWarnings("WeakerAccess")
 public final class DebugPageController {
@@ -30,9 +131,243 @@ public final class DebugPageController {
         Logf.getInstance().add(DebugPageController.class, LOG_TAG);
     }
 
-    private final HashMap<String, Command> mCommands = new HashMap<>();
+    /* Registered commands; modified only on the main thread, before any
+     * command can run */
+    private final PrefixTrie<Command> mCommands = new PrefixTrie<>();
+
+    private final LogCapture mCapture;
+
+    /* Lines submitted from the command box */
+    private final CommandHistory mHistory;
+    /* Entry shown by up/down, or 0 when not browsing; main thread only */
+    private int mHistoryCursor = 0;
+    private String mHistoryDraft = "";
+    /* Reverse search text and last match, or null; main thread only */
+    private String mSearchQuery = null;
+    private int mSearchMatch = 0;
+
+    /* History references: !!, !N, or !-N, then the rest of the line */
+    private static final Pattern HISTORY_REF = Pattern.compile("^!(!|-?\\d+)(\\s.*)?$", Pattern.DOTALL);
+
+    /* Measurements of each command that has run, by command name */
+    private final ConcurrentHashMap<String, CommandStats> mStats = new ConcurrentHashMap<>();
+
+    private final TextView mDebugCommand;
+    private final ProgressBar mRunning;
+
+    private final CommandExecutor mExecutor;
+
+    /* Runs every pipeline stage but the last, which runs on the job's own
+     * worker; bounded, and never queues a stage */
+    private final ThreadPoolExecutor mPipePool;
+
+    /* Limits on the output held for each job while detached */
+    private final int mJobBufferLines;
+    private final int mJobBufferChars;
+
+    /* Finished jobs whose held output has not been shown, oldest first;
+     * guarded by itself */
+    private static final int MAX_FINISHED_JOBS = 8;
+    private final LinkedHashMap<Integer, CommandExecutor.Task> mFinishedJobs = new LinkedHashMap<>();
+    private final Runnable mUpdateRunning = this::updateRunningIndicator;
+
+    /* Lines shown in the output view; accessed only on the main thread */
+    private final LineRing mScrollback;
+    private final ScrollbackAdapter mAdapter = new ScrollbackAdapter();
+
+    /* Lines not yet added to the output view; guarded by mPendingLock */
+    private final Object mPendingLock = new Object();
+    private final LineRing mPending;
+    private final Map<Region, CharSequence> mPendingRegions = new LinkedHashMap<>();
+    private boolean mFlushScheduled = false;
+
+    /* Periodic commands started by "watch" */
+    private final Watcher mWatcher;
+
+    /* The main thread's choreographer, which any thread may post to */
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final Choreographer.FrameCallback mFlushCallback = frameTimeNanos -> flush();
+
+    /** One command of a command line, ready to run.
+     *
+     * While a line is being split into stages, a stage's arguments have not
+     * been checked yet and {@code mValues} is {@code null}; see
+     * {@link #prepare}.
+     */
+    private static final class Stage {
+        final Command mCommand;
+        final Invocation mInvocation;
+        final ArgSchema.Values mValues;
+
+        Stage(Command command, Invocation invocation, ArgSchema.Values values) {
+            mCommand = command;
+            mInvocation = invocation;
+            mValues = values;
+        }
+    }
+
+    /** A part of the output view whose text is replaced rather than added to.
+     *
+     * A region is shown as a single (possibly multi-line) item of the
+     * output view. It is added after the output already shown the first time
+     * its text is set; later updates replace that item where it is. If the
+     * item has since been discarded from the scrollback or cleared, the next
+     * update adds it again at the end.
+     */
+    static final class Region {
+        /* Sequence number of the region's item in mScrollback, or -1 if it
+         * has not been added; accessed only on the main thread */
+        private long mSequence = -1;
+    }
+
+    /** Adapter presenting the scrollback lines to the output view. */
+    private final class ScrollbackAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return mScrollback.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return mScrollback.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            TextView line = (TextView) convertView;
+            if (line == null) {
+                line = (TextView) LayoutInflater.from(parent.getContext())
+                        .inflate(R.layout.debug_line, parent, false);
+            }
+            line.setText(mScrollback.get(position));
+            return line;
+        }
+    }
+
+    /** Construct the controller.
+     *
+     * @param capture The recent log records to query with the {@code logs}
+     * command, or {@code null} to omit the command.
+     * @param history The history of submitted lines.
+     */
+    public DebugPageController(LogCapture capture, @NonNull CommandHistory history) {
+        MainActivity activity = MainActivity.getInstance();
+        mHistory = history;
+        mDebugCommand = activity.findViewById(R.id.debugCommand);
+        mDebugCommand.setOnKeyListener((view, keyCode, event) -> {
+            boolean search = keyCode == KeyEvent.KEYCODE_R && event.isCtrlPressed();
+            if (!search && mSearchQuery != null && event.getAction() == KeyEvent.ACTION_DOWN) {
+                /* Any other key accepts the match */
+                mSearchQuery = null;
+            }
+            if (keyCode != KeyEvent.KEYCODE_TAB && keyCode != KeyEvent.KEYCODE_DPAD_UP
+                    && keyCode != KeyEvent.KEYCODE_DPAD_DOWN && !search) {
+                return false;
+            }
+            if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                if (search) {
+                    searchHistory();
+                } else if (keyCode == KeyEvent.KEYCODE_TAB) {
+                    completeDebugCommand();
+                } else {
+                    browseHistory(keyCode == KeyEvent.KEYCODE_DPAD_UP ? -1 : 1);
+                }
+            }
+            return true;
+        });
+        mRunning = activity.findViewById(R.id.debugRunning);
+        mExecutor = new CommandExecutor(Res.getInteger(R.integer.debugCommandThreads),
+                Res.getInteger(R.integer.debugCommandQueueSize), Res.getInteger(R.integer.debugBackgroundJobs),
+                new CommandExecutor.Listener() {
+            @Override
+            public void onTaskStarted(CommandExecutor.Task task) {
+                mRunning.post(mUpdateRunning);
+            }
 
-    public DebugPageController() {
+            @Override
+            public void onTaskFinished(CommandExecutor.Task task, Throwable error) {
+                if (task.isCancelled()) {
+                    debug("%s cancelled", task);
+                } else if (error != null) {
+                    debug("%s failed: %s", task, error);
+                    Logf.ec("Command %s failed: %s", task, error);
+                }
+                OutputBuffer output = task.getOutput();
+                if (output != null && !output.isAttached() && !task.isCancelled()) {
+                    int held = output.getHeld();
+                    debug("%s done; %d line(s) held%s", task, held,
+                            (held == 0) ? "" : String.format(", \"fg %%%d\" shows them", task.getId()));
+                    if (held > 0) {
+                        keepFinishedJob(task);
+                    }
+                }
+                mRunning.post(mUpdateRunning);
+            }
+        });
+        final AtomicInteger pipeThreadNumber = new AtomicInteger(1);
+        mPipePool = new ThreadPoolExecutor(0, Res.getInteger(R.integer.debugPipeThreads), 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, "debug-pipe-" + pipeThreadNumber.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+        mJobBufferLines = Res.getInteger(R.integer.debugJobBufferLines);
+        mJobBufferChars = Res.getInteger(R.integer.debugJobBufferChars);
+        int maxLines = Res.getInteger(R.integer.debugScrollbackMaxLines);
+        int maxChars = Res.getInteger(R.integer.debugScrollbackMaxChars);
+        mScrollback = new LineRing(maxLines, maxChars);
+        mPending = new LineRing(maxLines, maxChars);
+        ListView output = activity.findViewById(R.id.debugOutput);
+        output.setEmptyView(activity.findViewById(R.id.debugOutputEmpty));
+        output.setAdapter(mAdapter);
+        register(new Command("help", this::executeHelpCommand,
+                "list the commands, or describe one command's arguments",
+                new ArgSchema().positional(ArgSchema.Param.string("command").optional()
+                        .describe("the command to describe")), true));
+        register(new Command("cancel", this::executeCancelCommand,
+                "cancel a command, or all running commands",
+                new ArgSchema().positional(ArgSchema.Param.string("job").optional()
+                        .describe("job number, optionally prefixed with %")), true));
+        ArgSchema jobSchema = new ArgSchema().positional(ArgSchema.Param.string("job").optional()
+                .describe("job number, optionally prefixed with %; default the newest"));
+        register(new Command("jobs", this::executeJobsCommand,
+                "list running and finished background jobs", new ArgSchema(), true));
+        register(new Command("fg", this::executeFgCommand,
+                "show a job's held output, then its output as it arrives", jobSchema, true));
+        register(new Command("bg", this::executeBgCommand,
+                "hold a running job's output instead of showing it", jobSchema, true));
+        register(new Command("kill", this::executeKillCommand, "cancel a job",
+                new ArgSchema().positional(ArgSchema.Param.string("job")
+                        .describe("job number, optionally prefixed with %")), true));
+        register("stats", new ArgSchema()
+                .flag("-c", "print CSV instead of a table")
+                .flag("-r", "clear the measurements afterwards")
+                .option("-o", ArgSchema.Param.string("file").describe("write CSV to this file in the app's files directory"))
+                .positional(ArgSchema.Param.string("command").optional().describe("only this command")),
+                this::executeStatsCommand, "show how long commands take and how much they print");
+        register("history", new ArgSchema()
+                .flag("-c", "forget every entry")
+                .option("-s", ArgSchema.Param.string("text").describe("only entries containing this text"))
+                .positional(ArgSchema.Param.integer("count", 1, Integer.MAX_VALUE).optional()
+                        .describe("number of newest entries to list (default all)")),
+                this::executeHistoryCommand, "list the lines entered; use !N to run entry N again");
+        FilterCommands.register(this, maxLines);
+        ScriptRunner.register(this);
+        mWatcher = new Watcher(this);
+        mCapture = capture;
+        if (mCapture != null) {
+            register("logs", new ArgSchema()
+                    .option("-t", ArgSchema.Param.string("tag").describe("only messages with this tag"))
+                    .option("-l", ArgSchema.Param.choice("level", "V", "D", "I", "W", "E", "A")
+                            .describe("only messages at or above this level"))
+                    .line("regex", "only messages matching this pattern, to the end of the line"),
+                    this::executeLogsCommand, "show recent log messages");
+        }
         Logf.ic("DebugPageController created");
     }
 
@@ -53,13 +388,25 @@ public final class DebugPageController {
      * and replace it with the simpler {@code register(cmd, func, help)}.
      *
      * @param command The command string.
-     * @param function The command function.
+     * @param function The command function, given a context for each run.
      * @param help The command's help text (or {@code null} for no help text).
      */
-    public void register(@NonNull String command, @NotNull Consumer<String> function, String help) {
+    public void register(@NonNull String command, @NotNull Consumer<CommandContext> function, String help) {
         register(new Command(command, function, help));
     }
 
+    /** Register a named command with declared arguments.
+     *
+     * @param command The command string.
+     * @param schema The command's arguments.
+     * @param function The command function, given a context for each run.
+     * @param help The command's help text (or {@code null} for no help text).
+     */
+    public void register(@NonNull String command, @NonNull ArgSchema schema,
+                         @NotNull Consumer<CommandContext> function, String help) {
+        register(new Command(command, function, help, schema, false));
+    }
+
     /** Removes a command entirely.
      *
      * @param cmd The command to remove
@@ -69,64 +416,613 @@ public final class DebugPageController {
         mCommands.remove(cmd);
     }
 
-    /** Get all declared mCommands, except for the default (if present).
+    /** Get all registered command names, in order.
      *
-     * @return A collection of mCommands, without the default command.
+     * @return A collection of command names.
      */
     @NonNull
     public Collection<String> getCommands() {
-        return mCommands.keySet();
+        return mCommands.complete("");
+    }
+
+    /** Find the command an invocation names.
+     *
+     * @param invocation The parsed command line, or {@code null}.
+     * @return The command named exactly or by an unambiguous abbreviation,
+     * or {@code null} if there is none.
+     */
+    private Command resolve(Invocation invocation) {
+        return (invocation == null) ? null : mCommands.resolve(invocation.getName());
+    }
+
+    /** Execute a line entered in the command box, and add it to the history.
+     *
+     * A line starting with {@code !!}, {@code !N}, or {@code !-N} (followed
+     * by nothing or by whitespace) has that prefix replaced by the newest,
+     * N-th, or N-th newest history entry first. The expanded line is shown
+     * and recorded in place of the reference. This runs on the main thread,
+     * so it never waits for the history file to load: until it has,
+     * {@code !N} and references older than this session's entries are
+     * reported as unavailable.
+     *
+     * @param line The line entered.
+     * @return True if the command was found (or the reference could not be
+     * expanded, which is reported), false otherwise
+     */
+    public boolean submit(String line) {
+        mHistoryCursor = 0;
+        mSearchQuery = null;
+        if (line == null) {
+            return false;
+        }
+        Matcher m = HISTORY_REF.matcher(line.trim());
+        if (m.matches()) {
+            boolean loaded = mHistory.isLoaded();
+            String entry = expandHistory(m.group(1), loaded);
+            if (entry == null) {
+                debug("history: !%s: %s", m.group(1), loaded ? "no such entry" : "history still loading");
+                return true;
+            }
+            line = (m.group(2) == null) ? entry : entry + m.group(2);
+            debug(line);
+        }
+        mHistory.add(line);
+        return execute(line);
+    }
+
+    /** Find the entry a history reference names.
+     *
+     * Before the file has loaded, only this session's entries are present;
+     * they are the newest, so relative references among them are still
+     * right, but absolute numbers are not.
+     *
+     * @param ref The reference without its {@code !}: {@code "!"}, a
+     * number, or a negative number.
+     * @param loaded Whether the history file had loaded before the call.
+     * @return The entry, or {@code null} if there is none yet.
+     */
+    private String expandHistory(String ref, boolean loaded) {
+        int size = mHistory.size();
+        if (ref.equals("!")) {
+            return mHistory.get(size);
+        }
+        Integer n = Str.tryParseInteger(ref);
+        if (n == null || (n >= 0 && !loaded)) {
+            return null;
+        }
+        return mHistory.get(n < 0 ? size + 1 + n : n);
+    }
+
+    /** Replace the command box with an older or newer history entry.
+     *
+     * Moving past the newest entry restores the text being typed before
+     * browsing began.
+     *
+     * @param direction -1 for the previous entry, 1 for the next.
+     */
+    private void browseHistory(int direction) {
+        int size = mHistory.size();
+        if (mHistoryCursor == 0) {
+            if (direction > 0) {
+                return;
+            }
+            mHistoryDraft = getDebugCommand();
+            mHistoryCursor = size + 1;
+        }
+        int cursor = mHistoryCursor + direction;
+        if (cursor < 1) {
+            return;
+        }
+        String text;
+        if (cursor > size) {
+            mHistoryCursor = 0;
+            text = mHistoryDraft;
+        } else {
+            mHistoryCursor = cursor;
+            text = mHistory.get(cursor);
+        }
+        mDebugCommand.setText(text);
+        mDebugCommand.setSelection(text.length());
+    }
+
+    /** Search backwards through the history for the text in the command box.
+     *
+     * The first search takes the command box's text as the query and shows
+     * the newest entry containing it; each further search shows the next
+     * older match. Each search resumes from the previous match, so the cost
+     * is the entries skipped rather than the size of the history.
+     */
+    private void searchHistory() {
+        if (mSearchQuery == null) {
+            mSearchQuery = getDebugCommand();
+            mSearchMatch = mHistory.size() + 1;
+        }
+        int match = mHistory.search(mSearchQuery, mSearchMatch - 1);
+        if (match == 0) {
+            debug("history: no older entry contains \"%s\"", mSearchQuery);
+            return;
+        }
+        mSearchMatch = match;
+        String text = mHistory.get(match);
+        mDebugCommand.setText(text);
+        mDebugCommand.setSelection(text.length());
     }
 
     /** Execute the command string.
      *
-     * By default, the empty string is passed as the command's arguments string.
+     * The first word of the command string names the command, and the rest
+     * is passed to the command as its arguments. See {@link Invocation}.
+     *
+     * Commands run on a worker thread; this method returns once the command
+     * has been queued. Immediate commands, such as {@code help} and
+     * {@code cancel}, run before this method returns.
+     *
+     * Each run gets its own {@link CommandContext}, whose output goes to the
+     * debug output. If the command declares an {@link ArgSchema}, the
+     * arguments are checked first; invalid arguments are reported and the
+     * command does not run.
      *
-     * If the command contains a space, then the command is set to the first
-     * word (up to but not including the space) and the arguments are set to
-     * everything after the first space.
+     * Commands separated by {@code |} form a pipeline, which runs as a single
+     * job; see {@link #runPipeline}. A {@code |} not followed by a command
+     * name, inside quotes, or after a command taking the rest of the line
+     * verbatim (see {@link ArgSchema#isRaw()}) is part of the preceding
+     * command's arguments, so {@code ! ps | tail -5} still runs a shell
+     * pipeline.
+     *
+     * A trailing {@code &} (outside quotes) runs the command in the
+     * background, with its output held until shown with {@code fg}.
      *
      * @param command The command string to execute
+     * @return True if the command was found, false otherwise
+     */
+    public boolean execute(String command) {
+        String foreground = stripBackground(command);
+        boolean background = foreground != null;
+        if (background) {
+            command = foreground;
+        }
+        List<Stage> stages = prepareAll(command, this::debug);
+        if (stages == null) {
+            return false;
+        } else if (stages.isEmpty()) {
+            /* Invalid arguments, already reported */
+            return true;
+        }
+        if (stages.size() == 1 && stages.get(0).mCommand.isImmediate()) {
+            Stage stage = stages.get(0);
+            CommandStats stats = getStats(stage.mCommand);
+            runMeasured(stage.mCommand, new CommandContext(stage.mInvocation, stage.mValues, stats,
+                    this::debug), stats);
+            return true;
+        }
+        CommandContext context;
+        Runnable job;
+        OutputBuffer output = new OutputBuffer(this::debug, mJobBufferLines, mJobBufferChars, !background);
+        if (stages.size() == 1) {
+            Stage stage = stages.get(0);
+            CommandStats stats = getStats(stage.mCommand);
+            context = new CommandContext(stage.mInvocation, stage.mValues, stats, output);
+            job = () -> runMeasured(stage.mCommand, context, stats);
+        } else {
+            CommandContext pipeline = new CommandContext(joinStages(stages), output);
+            context = pipeline;
+            job = () -> runPipeline(stages, pipeline);
+        }
+        try {
+            CommandExecutor.Task task = mExecutor.submit(context, job, output, background);
+            if (background) {
+                debug("%s started in the background", task);
+            }
+        } catch (RejectedExecutionException e) {
+            if (background) {
+                debug("Too many background jobs (at most %d); \"%s\" not started; see \"jobs\"",
+                        mExecutor.getMaxBackground(), context.getInvocation());
+            } else {
+                debug("Too many commands running; \"%s\" not executed", context.getInvocation());
+            }
+        }
+        updateRunningIndicator();
+        return true;
+    }
+
+    /** Remove the {@code &} ending a command line, if there is one.
+     *
+     * @param line The command line.
+     * @return The line without its trailing {@code &}, or {@code null} if
+     * the line does not end in an unquoted {@code &}.
+     */
+    private static String stripBackground(String line) {
+        if (line == null) {
+            return null;
+        }
+        String trimmed = line.trim();
+        List<String> pieces = Tokenizer.split(trimmed, '&');
+        if (pieces.size() < 2 || !pieces.get(pieces.size() - 1).isEmpty()) {
+            return null;
+        }
+        return trimmed.substring(0, trimmed.length() - 1);
+    }
+
+    /** Remember a finished job until its held output is shown.
+     *
+     * @param task The finished job.
+     */
+    private void keepFinishedJob(CommandExecutor.Task task) {
+        synchronized (mFinishedJobs) {
+            mFinishedJobs.put(task.getId(), task);
+            if (mFinishedJobs.size() > MAX_FINISHED_JOBS) {
+                Integer oldest = mFinishedJobs.keySet().iterator().next();
+                mFinishedJobs.remove(oldest);
+            }
+        }
+    }
+
+    /** Find a running or finished job.
+     *
+     * @param spec The job number, optionally prefixed with {@code %}.
+     * @return The job, or {@code null} if there is no such job.
+     */
+    private CommandExecutor.Task findJob(String spec) {
+        int id = jobNumber(spec);
+        CommandExecutor.Task task = mExecutor.getTask(id);
+        if (task == null) {
+            synchronized (mFinishedJobs) {
+                task = mFinishedJobs.get(id);
+            }
+        }
+        return task;
+    }
+
+    /** Run a command line on the calling thread, waiting for it to finish.
+     *
+     * This is how scripts run their lines: the line is split into a
+     * pipeline and checked as by {@link #execute}, but runs on the calling
+     * thread (with any further pipeline stages on threads of their own)
+     * rather than being queued. Its output goes where {@code parent}'s does,
+     * and cancelling {@code parent} cancels it.
+     *
+     * @param line The command line.
+     * @param parent The context of the script running the line.
+     * @return True if the line ran and did not fail or get cancelled.
+     */
+    boolean runLine(String line, @NonNull CommandContext parent) {
+        if (stripBackground(line) != null) {
+            /* Background jobs run on their own, as if entered */
+            return execute(line);
+        }
+        List<Stage> stages = prepareAll(line, parent::print);
+        if (stages == null) {
+            parent.print("no such command: %s", line.trim());
+            return false;
+        } else if (stages.isEmpty()) {
+            return false;
+        }
+        CommandContext context;
+        if (stages.size() == 1) {
+            Stage stage = stages.get(0);
+            CommandStats stats = getStats(stage.mCommand);
+            context = new CommandContext(stage.mInvocation, stage.mValues, null, null, parent, stats);
+            try {
+                runMeasured(stage.mCommand, context, stats);
+            } catch (RuntimeException e) {
+                parent.print("%s failed: %s", stage.mInvocation, e);
+                Logf.ec("Command %s failed: %s", stage.mInvocation, e);
+            }
+        } else {
+            context = new CommandContext(joinStages(stages), null, null, null, parent, null);
+            runPipeline(stages, context);
+        }
+        return !context.isFailed() && !context.isCancelled();
+    }
+
+    /** Check a command line without running it.
+     *
+     * @param line The command line.
+     * @param report Receives the reason the line cannot run.
+     * @return True if every stage names a command and has valid arguments.
+     */
+    boolean check(String line, Consumer<CharSequence> report) {
+        List<Stage> stages = prepareAll(line, report);
+        if (stages == null) {
+            report.accept("no such command: " + line.trim());
+            return false;
+        }
+        return !stages.isEmpty();
+    }
+
+    /** Find and check the commands of every stage of a command line.
+     *
+     * @param line The command line.
+     * @param report Receives the error and usage if a stage's arguments are
+     * invalid.
+     * @return The stages; an empty list if a stage's arguments are invalid,
+     * or {@code null} if a stage names no command.
+     */
+    private List<Stage> prepareAll(String line, Consumer<CharSequence> report) {
+        List<Stage> stages = new ArrayList<>();
+        for (Stage named : splitPipeline(line)) {
+            if (named == null) {
+                return null;
+            }
+            Stage stage = prepare(named);
+            if (stage.mValues != null && !stage.mValues.isValid()) {
+                ArgSchema schema = stage.mCommand.getSchema();
+                report.accept(String.format("%s: %s", stage.mCommand.getCommand(), stage.mValues.getError()));
+                report.accept(String.format("usage: %s %s", stage.mCommand.getCommand(), schema.usage()));
+                return Collections.emptyList();
+            }
+            stages.add(stage);
+        }
+        return stages.isEmpty() ? null : stages;
+    }
+
+    /** Describe a pipeline as a single invocation.
+     *
+     * @param stages The stages, in order.
+     * @return The stages' command lines joined by {@code |}.
+     */
+    private static Invocation joinStages(List<Stage> stages) {
+        Invocation pipeline = stages.get(0).mInvocation;
+        for (int i = 1; i < stages.size(); ++i) {
+            pipeline = pipeline.pipe(stages.get(i).mInvocation);
+        }
+        return pipeline;
+    }
+
+    /** Get the measurements of a command, creating them if needed.
+     *
+     * @param command The command.
+     * @return The command's statistics.
+     */
+    private CommandStats getStats(Command command) {
+        return mStats.computeIfAbsent(command.getCommand(), CommandStats::new);
+    }
+
+    /** Run a command on the calling thread, measuring it.
+     *
+     * A run which throws is marked as failed in its context before the
+     * exception propagates.
+     *
+     * @param command The command.
+     * @param context The run's context.
+     * @param stats Receives the run's wall and CPU time.
+     */
+    private static void runMeasured(Command command, CommandContext context, CommandStats stats) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        long cpuStart = Debug.threadCpuTimeNanos();
+        boolean failed = true;
+        try {
+            command.execute(context);
+            failed = false;
+        } finally {
+            long cpuEnd = Debug.threadCpuTimeNanos();
+            long cpu = (cpuStart < 0 || cpuEnd < 0) ? -1 : cpuEnd - cpuStart;
+            if (failed) {
+                context.setFailed();
+            }
+            stats.record(SystemClock.elapsedRealtimeNanos() - start, cpu, context.isFailed());
+        }
+    }
+
+    /** Split a command line into the commands of a pipeline.
+     *
+     * Each command's text is parsed and its command looked up once, while
+     * splitting; the results are the stages, with unchecked arguments.
+     *
+     * @param line The command line.
+     * @return The stages, in order; the first is {@code null} if the line
+     * does not start with a command name.
+     */
+    private List<Stage> splitPipeline(String line) {
+        return Tokenizer.splitPipeline(line, this::name, stage -> {
+            ArgSchema schema = stage.mCommand.getSchema();
+            /* Commands without a schema get their arguments unchecked */
+            return schema == null || schema.isRaw();
+        });
+    }
+
+    /** Find the command one stage of a command line names.
+     *
+     * @param segment The stage's text.
+     * @return The stage, with its arguments not yet checked, or
+     * {@code null} if no command is named.
+     */
+    private Stage name(String segment) {
+        Invocation invocation = Invocation.parse(segment);
+        Command action = resolve(invocation);
+        if (action == null) {
+            return null;
+        }
+        /* Show and record the command by its full name */
+        return new Stage(action, invocation.withName(action.getCommand()), null);
+    }
+
+    /** Check the arguments of one stage of a command line.
+     *
+     * @param named The stage, as found by {@link #name}.
+     * @return The stage, whose arguments may be invalid.
+     */
+    private static Stage prepare(Stage named) {
+        ArgSchema schema = named.mCommand.getSchema();
+        Invocation invocation = named.mInvocation;
+        return new Stage(named.mCommand, invocation, (schema == null) ? null : schema.parse(invocation.getArgs()));
+    }
+
+    /** Run the stages of a pipeline, each on its own thread.
+     *
+     * Every stage but the last runs on the shared pipeline pool, which
+     * holds at most {@code debugPipeThreads} threads; a pipeline needing
+     * more than are free fails without running its last stage.
+     *
+     * Each stage's output is connected to the next stage's input by a
+     * {@link LinePipe} holding at most {@code debugPipeCapacity} lines, so a
+     * stage producing lines faster than the next consumes them waits for
+     * it. The last stage runs on the calling thread and writes to the debug
+     * output. When a stage returns, its input is closed, which stops the
+     * stage before it, and its output is closed, which ends the next stage's
+     * input. Once the last stage returns, any stages still running are
+     * interrupted, and the pipeline waits for them to return; cancelling
+     * the pipeline's job therefore stops every stage. The pipeline fails if
+     * any of its stages does.
+     *
+     * @param stages The stages, in order.
+     * @param pipeline The context of the whole pipeline, which cancelling
+     * the job cancels.
      */
-    public void execute(String command) {
-        if (command == null || command.length() == 0) {
-            /* Prevent meaningless execution */
+    private void runPipeline(List<Stage> stages, CommandContext pipeline) {
+        int capacity = Res.getInteger(R.integer.debugPipeCapacity);
+        int background = stages.size() - 1;
+        CountDownLatch finished = new CountDownLatch(background);
+        List<FutureTask<Void>> tasks = new ArrayList<>();
+        List<CommandContext> contexts = new ArrayList<>();
+        LinePipe input = null;
+        try {
+            for (int i = 0; i < stages.size(); ++i) {
+                Stage stage = stages.get(i);
+                LinePipe output = (i + 1 < stages.size()) ? new LinePipe(capacity) : null;
+                CommandStats stats = getStats(stage.mCommand);
+                CommandContext context = new CommandContext(stage.mInvocation, stage.mValues, input, output,
+                        pipeline, stats);
+                contexts.add(context);
+                LinePipe stageInput = input;
+                Runnable run = () -> {
+                    try {
+                        runMeasured(stage.mCommand, context, stats);
+                    } catch (RuntimeException e) {
+                        pipeline.print("%s failed: %s", stage.mInvocation, e);
+                        Logf.ec("Pipeline stage %s failed: %s", stage.mInvocation, e);
+                    } finally {
+                        if (stageInput != null) {
+                            stageInput.closeRead();
+                        }
+                        if (output != null) {
+                            output.closeWrite();
+                        }
+                    }
+                };
+                if (output == null) {
+                    run.run();
+                    break;
+                }
+                FutureTask<Void> task = new FutureTask<Void>(run, null) {
+                    @Override
+                    public void run() {
+                        /* Runs even if cancelled first, so the count is exact */
+                        try {
+                            super.run();
+                        } finally {
+                            finished.countDown();
+                        }
+                    }
+                };
+                try {
+                    mPipePool.execute(task);
+                } catch (RejectedExecutionException e) {
+                    pipeline.fail("%s: too many pipeline stages running", stage.mInvocation.getName());
+                    /* Stop the stages already started and skip the rest */
+                    if (input != null) {
+                        input.closeRead();
+                    }
+                    for (int j = i; j < background; ++j) {
+                        finished.countDown();
+                    }
+                    break;
+                }
+                tasks.add(task);
+                input = output;
+            }
+        } finally {
+            /* Once the last stage is done, nothing reads the others' output */
+            for (FutureTask<Void> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                /* Still wait, so no stage outlives the pipeline's job */
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        for (CommandContext context : contexts) {
+            if (context.isFailed()) {
+                pipeline.setFailed();
+            }
+        }
+    }
+
+    /** Complete the command name in the command box.
+     *
+     * The name is extended as far as all matching commands agree, followed
+     * by a space if only one command matches. If the name cannot be extended
+     * and several commands match, they are listed in the debug output.
+     */
+    private void completeDebugCommand() {
+        String text = getDebugCommand();
+        if (text.isEmpty() || text.trim().length() != text.length() || text.contains(" ")) {
+            /* Only the command name is completed */
             return;
         }
-        /* Split the first word (command) with the rest (arguments) */
-        String[] words = command.split(" ", 2);
-        String cmd = words[0];
-        String args = (words.length == 1) ? "" : words[1];
-        if (cmd.equals("help")) {
-            /* Handle the special help command */
-            executeHelpCommand();
-        } else if (mCommands.containsKey(cmd)) {
-            /* Handle a generic command */
-            Command action = Objects.requireNonNull(mCommands.get(cmd));
-            action.bindArgument(args);
-            action.execute();
+        String extended = mCommands.extend(text);
+        if (mCommands.get(extended) != null && mCommands.complete(extended).size() == 1) {
+            extended += " ";
+        } else if (extended.equals(text)) {
+            List<String> matches = mCommands.complete(text);
+            if (matches.size() > 1) {
+                debug(String.join("  ", matches));
+            }
+        }
+        if (!extended.equals(text)) {
+            mDebugCommand.setText(extended);
+            mDebugCommand.setSelection(extended.length());
         }
     }
 
-    /** Return whether or not the command is registered.
+    /** Show the running indicator while any command is pending. */
+    private void updateRunningIndicator() {
+        mRunning.setVisibility(mExecutor.getPendingCount() > 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /** Cancel all pending commands and stop the worker threads.
+     *
+     * Background jobs are cancelled along with the rest, watched commands
+     * stop, and the output held for finished jobs is discarded. Called when
+     * the activity is destroyed.
+     */
+    public void shutdown() {
+        mWatcher.shutdown();
+        mExecutor.shutdown();
+        mPipePool.shutdownNow();
+        synchronized (mFinishedJobs) {
+            mFinishedJobs.clear();
+        }
+    }
+
+    /** Stop work which only matters while the debug page is visible.
      *
-     * If a command contains a space, then only the first word (up to but not
-     * including the space) is used. Otherwise, the entire command is used.
+     * Called when the user leaves the debug page or the activity stops.
+     * Every command started by {@code watch} is stopped.
+     */
+    public void onPageHidden() {
+        mWatcher.stopAll("page hidden");
+    }
+
+    /** Return whether or not the command is registered.
      *
-     * The {@code "help"} command is always registered.
+     * Only the first word of the command string is considered. It may be an
+     * unambiguous abbreviation of the command's name.
      *
-     * @param cmd The named command to examine
+     * @param cmd The command string to examine
      * @return true if the command is bound, false otherwise
      */
     public boolean isRegistered(String cmd) {
-        if (cmd.equals("help")) {
-            return true;
-        } else if (cmd.contains(" ")) {
-            String c = cmd.split(" ", 2)[0];
-            return mCommands.containsKey(c);
-        } else {
-            return mCommands.containsKey(cmd);
-        }
+        return resolve(Invocation.parse(cmd)) != null;
     }
 
     /** Get the content of the debugActionText widget.
@@ -134,8 +1030,7 @@ public final class DebugPageController {
      * @return Current content of the debugActionText widget, as a string
      */
     public String getDebugCommand() {
-        TextView t = MainActivity.getInstance().findViewById(R.id.debugCommand);
-        return t.getText().toString();
+        return mDebugCommand.getText().toString();
     }
 
     /** Clear the debugActionText widget's text.
@@ -144,30 +1039,73 @@ public final class DebugPageController {
      * automatically when a command is submitted.
      */
     public void clearDebugCommand() {
-        TextView t = MainActivity.getInstance().findViewById(R.id.debugCommand);
-        t.setText("");
+        mDebugCommand.setText("");
     }
 
-    /** Scroll to the bottom of the containing scroll view.
+    /** Move the pending lines to the output view.
      *
-     * Scrolling takes place after the current main loop iteration to allow for
-     * queued {@code debug.debug} calls to complete.
+     * Called on the main thread by the frame callback. The output view
+     * follows new lines (via its transcript mode) while scrolled to the
+     * bottom.
      */
-    private void scrollToBottom() {
-        ScrollView sv = MainActivity.getInstance().findViewById(R.id.debugTextScroll);
-        TextView tv = MainActivity.getInstance().findViewById(R.id.debugText);
-        tv.post(() -> sv.fullScroll(View.FOCUS_DOWN));
+    private void flush() {
+        synchronized (mPendingLock) {
+            for (int i = 0; i < mPending.size(); ++i) {
+                mScrollback.add(mPending.get(i));
+            }
+            mPending.clear();
+            for (Map.Entry<Region, CharSequence> update : mPendingRegions.entrySet()) {
+                Region region = update.getKey();
+                int index = (region.mSequence < 0) ? -1 : mScrollback.indexOf(region.mSequence);
+                if (index < 0) {
+                    mScrollback.add(update.getValue());
+                    region.mSequence = mScrollback.sequenceOf(mScrollback.size() - 1);
+                } else {
+                    mScrollback.set(index, update.getValue());
+                }
+            }
+            mPendingRegions.clear();
+            mFlushScheduled = false;
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    /* Arrange for pending output to be shown; caller holds mPendingLock */
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mChoreographer.postFrameCallback(mFlushCallback);
+        }
+    }
+
+    /** Replace the text of a region of the debug output.
+     *
+     * The text is shown on the next frame, after any lines already
+     * appended. If the region is updated several times before then, only
+     * the last text is shown. This may be called from any thread.
+     *
+     * @param region The region.
+     * @param text The region's new text.
+     */
+    void setRegion(@NonNull Region region, @NonNull CharSequence text) {
+        synchronized (mPendingLock) {
+            mPendingRegions.put(region, text);
+            scheduleFlush();
+        }
     }
 
-    /** Append a line to the debug text box.
+    /** Append a line to the debug output.
+     *
+     * The line is shown on the next frame. This may be called from any
+     * thread.
      *
      * @param text The text to append
      */
     public void debug(CharSequence text) {
-        TextView t = MainActivity.getInstance().findViewById(R.id.debugText);
-        t.append(text);
-        t.append("\n");
-        scrollToBottom();
+        synchronized (mPendingLock) {
+            mPending.add(text);
+            scheduleFlush();
+        }
     }
 
     /** Append a formatted message to the debug text box.
@@ -179,28 +1117,346 @@ public final class DebugPageController {
         debug(String.format(format.toString(), arguments));
     }
 
-    /** Clear the debug text box.
+    /** Clear the debug output.
      *
-     * This clears the main debug text box of its content.
+     * This clears the main debug output of its content, including any output
+     * not yet shown.
      */
     public void clearDebug() {
-        TextView t = MainActivity.getInstance().findViewById(R.id.debugText);
-        t.setText("");
+        synchronized (mPendingLock) {
+            mPending.clear();
+            mPendingRegions.clear();
+        }
+        mScrollback.clear();
+        mAdapter.notifyDataSetChanged();
+    }
+
+    /** Executes the command "logs".
+     *
+     * Shows the captured log records matching the given tag, minimum level,
+     * and message pattern. Everything after the options is the pattern,
+     * exactly as typed: backslashes are kept, and a {@code |} is part of the
+     * pattern rather than the start of another command.
+     *
+     * @param ctx The command's context.
+     */
+    private void executeLogsCommand(CommandContext ctx) {
+        ArgSchema.Values args = ctx.getValues();
+        String tag = args.getString("tag");
+        int level = args.has("level") ? Logf.parseLevel(args.getString("level")) : Log.VERBOSE;
+        Pattern pattern = null;
+        String regex = args.getRest().trim();
+        if (!regex.isEmpty()) {
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                ctx.fail("logs: invalid pattern: %s", e.getDescription());
+                return;
+            }
+        }
+        List<LogCapture.Record> records = mCapture.query(tag, level, pattern);
+        for (LogCapture.Record r : records) {
+            if (ctx.isCancelled()) {
+                return;
+            }
+            ctx.print(r.toString());
+        }
+        ctx.print("logs: %d of %d captured messages", records.size(), Math.min(mCapture.getCount(), mCapture.capacity()));
+    }
+
+    /** Executes the command "history".
+     *
+     * Lists history entries with their numbers, oldest first, optionally
+     * only those containing some text or only the newest few.
+     *
+     * @param ctx The command's context.
+     */
+    private void executeHistoryCommand(CommandContext ctx) {
+        ArgSchema.Values args = ctx.getValues();
+        if (args.getFlag("-c")) {
+            mHistory.clear();
+            ctx.print("history: cleared");
+            return;
+        }
+        try {
+            if (!mHistory.awaitLoaded(5, TimeUnit.SECONDS)) {
+                ctx.print("history: still loading; showing recent entries");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        String text = args.getString("text");
+        int count = args.getInt("count", Integer.MAX_VALUE);
+        /* Collect the newest matches, then print them oldest first */
+        ArrayList<Integer> numbers = new ArrayList<>();
+        int number = mHistory.size() + 1;
+        while (numbers.size() < count && !ctx.isCancelled()) {
+            number = (text == null) ? number - 1 : mHistory.search(text, number - 1);
+            if (number < 1) {
+                break;
+            }
+            numbers.add(number);
+        }
+        for (int i = numbers.size() - 1; i >= 0 && !ctx.isCancelled(); --i) {
+            ctx.print("%5d  %s", numbers.get(i), mHistory.get(numbers.get(i)));
+        }
+    }
+
+    /** Executes the command "stats".
+     *
+     * Prints, for each command that has run, the number of runs and
+     * failures, the 50th, 90th, and 99th percentile and maximum wall time,
+     * the mean CPU time, and the lines and bytes printed. Times are in
+     * milliseconds. With {@code -c} the same data is printed as CSV, and
+     * with {@code -o} it is written to a CSV file.
+     *
+     * @param ctx The command's context.
+     */
+    private void executeStatsCommand(CommandContext ctx) {
+        ArgSchema.Values args = ctx.getValues();
+        TreeMap<String, CommandStats> stats = new TreeMap<>(mStats);
+        String only = args.getString("command");
+        if (only != null) {
+            Command command = mCommands.resolve(only);
+            if (command == null) {
+                ctx.fail("stats: no such command \"%s\"", only);
+                return;
+            }
+            stats.keySet().retainAll(Collections.singleton(command.getCommand()));
+        }
+        String file = args.getString("file");
+        if (file != null) {
+            File path = new File(MainActivity.getInstance().getFilesDir(), file);
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8)) {
+                out.write(CommandStats.CSV_HEADER);
+                out.write('\n');
+                for (CommandStats s : stats.values()) {
+                    out.write(s.toCsv());
+                    out.write('\n');
+                }
+                ctx.print("stats: wrote %d command(s) to %s", stats.size(), path.getAbsolutePath());
+            } catch (IOException e) {
+                ctx.fail("stats: %s", e);
+            }
+        } else if (args.getFlag("-c")) {
+            ctx.print(CommandStats.CSV_HEADER);
+            for (CommandStats s : stats.values()) {
+                ctx.print(s.toCsv());
+            }
+        } else {
+            ctx.print("%-10s %5s %4s %9s %9s %9s %9s %9s %7s %9s", "command", "runs", "err",
+                    "p50 ms", "p90 ms", "p99 ms", "max ms", "cpu ms", "lines", "bytes");
+            for (CommandStats s : stats.values()) {
+                ctx.print("%-10s %5d %4d %9.2f %9.2f %9.2f %9.2f %9.2f %7d %9d", s.getName(), s.getRuns(),
+                        s.getErrors(), CommandStats.millis(s.getWallTime().getPercentile(50)),
+                        CommandStats.millis(s.getWallTime().getPercentile(90)),
+                        CommandStats.millis(s.getWallTime().getPercentile(99)),
+                        CommandStats.millis(s.getWallTime().getMax()),
+                        CommandStats.millis(s.getCpuMeanNanos()), s.getLines(), s.getBytes());
+            }
+        }
+        if (args.getFlag("-r")) {
+            for (CommandStats s : stats.values()) {
+                s.reset();
+            }
+        }
+    }
+
+    /** Executes the command "cancel".
+     *
+     * With no arguments, cancels every pending command. Otherwise, cancels
+     * the command with the given job number (as shown in the command's
+     * output, optionally prefixed with {@code %}).
+     *
+     * @param ctx The command's context.
+     */
+    private void executeCancelCommand(CommandContext ctx) {
+        String arg = ctx.getValues().getString("job");
+        if (arg == null) {
+            ctx.print("Cancelled %d command(s)", mExecutor.cancelAll());
+            return;
+        }
+        CommandExecutor.Task task = mExecutor.getTask(jobNumber(arg));
+        if (task == null) {
+            ctx.fail("cancel: no such command \"%s\"", arg);
+            for (CommandExecutor.Task t : mExecutor.getTasks()) {
+                ctx.print("  %s (%d ms)", t, t.getElapsedMillis());
+            }
+        } else {
+            task.cancel(true);
+        }
+    }
+
+    /* Parse a job number, optionally prefixed with %, or return -1 */
+    private static int jobNumber(String spec) {
+        Integer id = Str.tryParseInteger(spec.startsWith("%") ? spec.substring(1) : spec);
+        return (id == null) ? -1 : id;
+    }
+
+    /** Executes the command "jobs".
+     *
+     * Lists each queued, running, or finished job with its state and the
+     * number of output lines it holds.
+     *
+     * @param ctx The command's context.
+     */
+    private void executeJobsCommand(CommandContext ctx) {
+        List<CommandExecutor.Task> jobs;
+        synchronized (mFinishedJobs) {
+            jobs = new ArrayList<>(mFinishedJobs.values());
+        }
+        jobs.addAll(mExecutor.getTasks());
+        if (jobs.isEmpty()) {
+            ctx.print("jobs: no jobs");
+            return;
+        }
+        for (CommandExecutor.Task task : jobs) {
+            OutputBuffer output = task.getOutput();
+            String state = task.isFinished() ? "done" : task.isCancelled() ? "stopping"
+                    : task.isStarted() ? "running" : "queued";
+            boolean shown = output == null || output.isAttached();
+            ctx.print("%-20s %-8s %s", task, state,
+                    shown ? "shown" : String.format("%d line(s) held", output.getHeld()));
+        }
+    }
+
+    /** Find the job named by a command's {@code job} argument.
+     *
+     * Without an argument, the newest job satisfying {@code filter} is
+     * chosen. Failures are reported through the context.
+     *
+     * @param ctx The command's context.
+     * @param filter Which jobs may be chosen by default.
+     * @return The job, or {@code null} if there is none.
+     */
+    private CommandExecutor.Task chooseJob(CommandContext ctx, Predicate<OutputBuffer> filter) {
+        String name = ctx.getInvocation().getName();
+        String spec = ctx.getValues().getString("job");
+        CommandExecutor.Task task = null;
+        if (spec != null) {
+            task = findJob(spec);
+            if (task == null || task.getOutput() == null) {
+                ctx.fail("%s: no such job \"%s\"", name, spec);
+                return null;
+            }
+            return task;
+        }
+        List<CommandExecutor.Task> jobs;
+        synchronized (mFinishedJobs) {
+            jobs = new ArrayList<>(mFinishedJobs.values());
+        }
+        jobs.addAll(mExecutor.getTasks());
+        for (CommandExecutor.Task t : jobs) {
+            if (t.getOutput() != null && filter.test(t.getOutput())) {
+                task = t;
+            }
+        }
+        if (task == null) {
+            ctx.fail("%s: no job to choose; see \"jobs\"", name);
+        }
+        return task;
     }
 
-    /** Executes the special command "help".
+    /** Executes the command "fg".
+     *
+     * Shows a job's held output, and shows further output as it arrives.
+     *
+     * @param ctx The command's context.
+     */
+    private void executeFgCommand(CommandContext ctx) {
+        CommandExecutor.Task task = chooseJob(ctx, output -> !output.isAttached());
+        if (task == null) {
+            return;
+        }
+        ctx.print("%s:", task);
+        task.getOutput().attach();
+        if (task.isFinished()) {
+            synchronized (mFinishedJobs) {
+                mFinishedJobs.remove(task.getId());
+            }
+        }
+    }
+
+    /** Executes the command "bg".
+     *
+     * Holds a running job's output instead of showing it.
+     *
+     * @param ctx The command's context.
+     */
+    private void executeBgCommand(CommandContext ctx) {
+        CommandExecutor.Task task = chooseJob(ctx, OutputBuffer::isAttached);
+        if (task == null) {
+            return;
+        } else if (task.isDone()) {
+            ctx.fail("bg: %s has finished", task);
+            return;
+        }
+        task.getOutput().detach();
+        ctx.print("%s continues in the background", task);
+    }
+
+    /** Executes the command "kill".
+     *
+     * Cancels a job. A finished job's held output is discarded.
+     *
+     * @param ctx The command's context.
+     */
+    private void executeKillCommand(CommandContext ctx) {
+        String spec = ctx.getValues().getString("job");
+        CommandExecutor.Task task = findJob(spec);
+        if (task == null) {
+            ctx.fail("kill: no such job \"%s\"", spec);
+        } else if (task.isFinished()) {
+            synchronized (mFinishedJobs) {
+                mFinishedJobs.remove(task.getId());
+            }
+            ctx.print("%s: held output discarded", task);
+        } else {
+            task.cancel(true);
+        }
+    }
+
+    /** Executes the command "help".
      *
      * This command lists the registered commands and their help strings.
+     * The shortest abbreviation of each command is shown in brackets when
+     * it is shorter than the command. Given a command name, it instead shows
+     * that command's usage and arguments, generated from its schema.
+     *
+     * @param ctx The command's context.
      */
-    private void executeHelpCommand() {
+    private void executeHelpCommand(CommandContext ctx) {
+        String about = ctx.getValues().getString("command");
+        if (about != null) {
+            Command command = mCommands.resolve(about);
+            if (command == null) {
+                ctx.fail("help: no such command \"%s\"", about);
+                return;
+            }
+            ctx.print(command.getHelpText());
+            ArgSchema schema = command.getSchema();
+            if (schema == null) {
+                ctx.print("usage: %s [arguments]", command.getCommand());
+                return;
+            }
+            ctx.print("usage: %s %s", command.getCommand(), schema.usage());
+            for (String line : schema.describe()) {
+                ctx.print(line);
+            }
+            return;
+        }
         for (String cmd : getCommands()) {
-            String help = Objects.requireNonNull(mCommands.get(cmd)).getHelpText();
+            String help = mCommands.get(cmd).getHelpText();
             if (help == null || help.isEmpty()) {
                 /* Provide default help string for mCommands without help text */
                 help = "This command has no help text.";
             }
-            debug(String.format("%-8s - %s", cmd, help));
+            String abbrev = mCommands.abbreviate(cmd);
+            String name = abbrev.equals(cmd) ? cmd : String.format("%s [%s]", cmd, abbrev);
+            ctx.print("%-14s - %s", name, help);
         }
+        ctx.print("Use \"help <command>\" to describe a command's arguments");
     }
 
 }
@@ -0,0 +1,184 @@
+package net.kaedenn.debugtoy;
+
+import net.kaedenn.debugtoy.util.ArgSchema;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/** Commands filtering the output of other commands.
+ *
+ * These commands read their input from the previous stage of a pipeline,
+ * as in {@code env | grep PATH | head 20}, and write what passes the
+ * filter. {@code grep}, {@code head} and {@code count} stream: each line is
+ * handled as it arrives and only the current line is held. {@code tail}
+ * holds the lines it will print and {@code sort} the lines it sorts, each
+ * up to a fixed number of lines.
+ *
+ * Lines keep their styling; filters match against the text alone.
+ */
+final class FilterCommands {
+    private FilterCommands() {
+    }
+
+    /** Register the filter commands.
+     *
+     * @param debug The controller to register with.
+     * @param maxLines The most lines {@code tail} or {@code sort} will hold.
+     */
+    static void register(DebugPageController debug, int maxLines) {
+        debug.register("grep", new ArgSchema()
+                .flag("-v", "print the lines that do not match")
+                .flag("-i", "ignore case")
+                .positional(ArgSchema.Param.string("regex").describe("the pattern to find")),
+                FilterCommands::grep, "print the input lines matching a pattern");
+        debug.register("head", new ArgSchema()
+                .positional(ArgSchema.Param.integer("count", 1, Integer.MAX_VALUE).withDefault(10)
+                        .describe("number of lines to print")),
+                FilterCommands::head, "print the first lines of the input");
+        debug.register("tail", new ArgSchema()
+                .positional(ArgSchema.Param.integer("count", 1, Integer.MAX_VALUE).withDefault(10)
+                        .describe(String.format("number of lines to print (at most %d)", maxLines))),
+                ctx -> tail(ctx, maxLines), "print the last lines of the input");
+        debug.register("count", new ArgSchema(),
+                FilterCommands::count, "print the number of input lines");
+        debug.register("sort", new ArgSchema()
+                .flag("-r", "reverse the order")
+                .flag("-u", "print repeated lines once"),
+                ctx -> sort(ctx, maxLines), "print the input lines in order");
+    }
+
+    /* Report use outside of a pipeline, returning true if there is input */
+    private static boolean checkInput(CommandContext ctx) {
+        if (!ctx.hasInput()) {
+            ctx.fail("%s: no input; use it in a pipeline such as \"env | %s\"",
+                    ctx.getInvocation().getName(), ctx.getInvocation().getLine());
+            return false;
+        }
+        return true;
+    }
+
+    private static void grep(CommandContext ctx) {
+        if (!checkInput(ctx)) {
+            return;
+        }
+        ArgSchema.Values args = ctx.getValues();
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(args.getString("regex"), args.getFlag("-i") ? Pattern.CASE_INSENSITIVE : 0);
+        } catch (PatternSyntaxException e) {
+            ctx.fail("grep: invalid pattern: %s", e.getDescription());
+            return;
+        }
+        boolean invert = args.getFlag("-v");
+        try {
+            CharSequence line;
+            while (!ctx.isCancelled() && (line = ctx.readLine()) != null) {
+                if (pattern.matcher(line).find() != invert) {
+                    ctx.print(line);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void head(CommandContext ctx) {
+        if (!checkInput(ctx)) {
+            return;
+        }
+        int remaining = ctx.getValues().getInt("count", 10);
+        try {
+            CharSequence line;
+            while (remaining > 0 && !ctx.isCancelled() && (line = ctx.readLine()) != null) {
+                ctx.print(line);
+                --remaining;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        /* Returning closes the input, which stops the previous stage */
+    }
+
+    private static void tail(CommandContext ctx, int maxLines) {
+        if (!checkInput(ctx)) {
+            return;
+        }
+        int requested = ctx.getValues().getInt("count", 10);
+        int count = Math.min(requested, maxLines);
+        ArrayDeque<CharSequence> lines = new ArrayDeque<>();
+        long dropped = 0;
+        try {
+            CharSequence line;
+            while (!ctx.isCancelled() && (line = ctx.readLine()) != null) {
+                if (lines.size() == count) {
+                    lines.removeFirst();
+                    ++dropped;
+                }
+                lines.addLast(line);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (CharSequence line : lines) {
+            ctx.print(line);
+        }
+        if (count < requested && dropped > 0) {
+            ctx.print("tail: only the last %d lines were kept; %d more were dropped", count, dropped);
+        }
+    }
+
+    private static void count(CommandContext ctx) {
+        if (!checkInput(ctx)) {
+            return;
+        }
+        long count = 0;
+        try {
+            while (!ctx.isCancelled() && ctx.readLine() != null) {
+                ++count;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        ctx.print(Long.toString(count));
+    }
+
+    private static void sort(CommandContext ctx, int maxLines) {
+        if (!checkInput(ctx)) {
+            return;
+        }
+        List<CharSequence> lines = new ArrayList<>();
+        long dropped = 0;
+        try {
+            CharSequence line;
+            while (!ctx.isCancelled() && (line = ctx.readLine()) != null) {
+                if (lines.size() < maxLines) {
+                    lines.add(line);
+                } else {
+                    ++dropped;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        Comparator<CharSequence> order = Comparator.comparing(CharSequence::toString);
+        lines.sort(ctx.getValues().getFlag("-r") ? order.reversed() : order);
+        boolean unique = ctx.getValues().getFlag("-u");
+        CharSequence previous = null;
+        for (CharSequence line : lines) {
+            if (!unique || previous == null || order.compare(previous, line) != 0) {
+                ctx.print(line);
+            }
+            previous = line;
+        }
+        if (dropped > 0) {
+            ctx.print("sort: only the first %d lines were sorted; %d more were dropped", maxLines, dropped);
+        }
+    }
+}
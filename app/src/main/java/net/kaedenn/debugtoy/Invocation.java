@@ -0,0 +1,114 @@
+package net.kaedenn.debugtoy;
+
+import androidx.annotation.NonNull;
+
+/** A command line, split into the command name and its arguments.
+ *
+ * The name is the first word of the line; the arguments are everything after
+ * the whitespace following it. Command lines are parsed exactly once, and
+ * the resulting invocation is used for lookup, dispatch, and display.
+ *
+ * Invocations are immutable.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+final class Invocation {
+    @NonNull
+    private final String mLine;
+    @NonNull
+    private final String mName;
+    @NonNull
+    private final String mArgs;
+
+    private Invocation(@NonNull String line, @NonNull String name, @NonNull String args) {
+        mLine = line;
+        mName = name;
+        mArgs = args;
+    }
+
+    /** Parse a command line.
+     *
+     * Leading and trailing whitespace is ignored.
+     *
+     * @param line The command line.
+     * @return The invocation, or {@code null} if the line is empty.
+     */
+    static Invocation parse(String line) {
+        if (line == null) {
+            return null;
+        }
+        line = line.trim();
+        if (line.isEmpty()) {
+            return null;
+        }
+        int end = 0;
+        while (end < line.length() && !Character.isWhitespace(line.charAt(end))) {
+            ++end;
+        }
+        int start = end;
+        while (start < line.length() && Character.isWhitespace(line.charAt(start))) {
+            ++start;
+        }
+        return new Invocation(line, line.substring(0, end), line.substring(start));
+    }
+
+    /** Get a copy of this invocation naming a different command.
+     *
+     * Used to expand an abbreviated command name to the full name.
+     *
+     * @param name The new command name.
+     * @return The new invocation.
+     */
+    Invocation withName(@NonNull String name) {
+        if (name.equals(mName)) {
+            return this;
+        }
+        String line = mArgs.isEmpty() ? name : name + " " + mArgs;
+        return new Invocation(line, name, mArgs);
+    }
+
+    /** Get an invocation of this command piped into another.
+     *
+     * The result is what parsing the two command lines joined by
+     * {@code " | "} would give, without parsing them again.
+     *
+     * @param next The command receiving this one's output.
+     * @return The invocation of the pipeline.
+     */
+    Invocation pipe(@NonNull Invocation next) {
+        String tail = "| " + next.mLine;
+        return new Invocation(mLine + " " + tail, mName, mArgs.isEmpty() ? tail : mArgs + " " + tail);
+    }
+
+    /** Get the whole command line.
+     *
+     * @return The command line, without surrounding whitespace.
+     */
+    @NonNull
+    String getLine() {
+        return mLine;
+    }
+
+    /** Get the command name.
+     *
+     * @return The command name.
+     */
+    @NonNull
+    String getName() {
+        return mName;
+    }
+
+    /** Get the arguments string.
+     *
+     * @return The arguments, or the empty string if there are none.
+     */
+    @NonNull
+    String getArgs() {
+        return mArgs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return mLine;
+    }
+}
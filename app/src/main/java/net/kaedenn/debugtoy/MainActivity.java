@@ -12,6 +12,8 @@ import android.os.Bundle;
 import android.os.Debug;
 import android.system.Os;
 import android.text.Html;
+import android.text.Spanned;
+import android.util.Log;
 import android.view.Display;
 import android.view.MotionEvent;
 import android.view.View;
@@ -21,16 +23,28 @@ import android.widget.Toast;
 import com.google.android.material.snackbar.Snackbar;
 
 import net.kaedenn.debugtoy.annotation.Callback;
+import net.kaedenn.debugtoy.util.ArgSchema;
+import net.kaedenn.debugtoy.util.CommandHistory;
+import net.kaedenn.debugtoy.util.EnvSnapshot;
+import net.kaedenn.debugtoy.util.LogCapture;
+import net.kaedenn.debugtoy.util.LogJournal;
+import net.kaedenn.debugtoy.util.LogRing;
 import net.kaedenn.debugtoy.util.Logf;
+import net.kaedenn.debugtoy.util.ProcessPump;
 import net.kaedenn.debugtoy.util.Res;
+import net.kaedenn.debugtoy.util.ShellSession;
 import net.kaedenn.debugtoy.util.Str;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /** Main activity for the {@code net.kaedenn.debugtoy} application. */
@@ -68,11 +82,45 @@ public class MainActivity extends Activity {
     private static final int PAGE_NO_ANIMATION = 0;
     private static final int PAGE_FADE_ANIMATION = 1;
     private static final int PAGE_SLIDE_ANIMATION = 2;
-    private int mPageAnimationType = PAGE_SLIDE_ANIMATION;
+    private volatile int mPageAnimationType = PAGE_SLIDE_ANIMATION;
+
+    /* Number of journal entries printed by "logdump" without an argument */
+    private static final int LOGDUMP_DEFAULT_LINES = 100;
+    /* Most journal entries "logdump" will print */
+    private static final int LOGDUMP_MAX_LINES = 10000;
+
+    /* Limits for system commands run by "!": buffer size per stream, lines
+     * waiting to be printed, and how long a command may run */
+    private static final int EXEC_BUFFER_SIZE = 8192;
+    private static final int EXEC_QUEUE_LINES = 256;
+    private static final long EXEC_TIMEOUT_SECONDS = 60;
+
+    /* How long "env" reuses a snapshot of the environment, and how many
+     * entries it styles at a time */
+    private static final long ENV_SNAPSHOT_TTL_SECONDS = 30;
+    private static final int ENV_BATCH_LINES = 64;
+
+    /* Last snapshot taken by "env"; guarded by this */
+    private EnvSnapshot mEnvSnapshot = null;
+
+    /* Script in the files directory run by "source" at launch, if present */
+    private static final String AUTORUN_SCRIPT = "autorun";
+
+    /* Persistent shell used by "!" after "shell on"; created on first use */
+    private ShellSession mShell = null;
+    private volatile boolean mUseShell = false;
 
     /* Controller for the first page. Public for other pages to use */
     public DebugPageController debug = null;
 
+    /* Binary log journal; null if it couldn't be opened */
+    private LogJournal mJournal = null;
+
+    private LogCapture mCapture = null;
+
+    /* Lines entered in the debug command box */
+    private CommandHistory mHistory = null;
+
     /** Create the activity.
      *
      * This is the entry point to the application. This method contains the code
@@ -85,6 +133,24 @@ public class MainActivity extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mActivity = new WeakReference<>(this);
+
+        /* Keep logging off the UI thread */
+        Logf.startAsync(Res.getInteger(R.integer.logRingCapacity), LogRing.Overflow.DROP);
+
+        /* Keep a local record of everything logged */
+        try {
+            mJournal = new LogJournal(getJournalDir(),
+                    Res.getInteger(R.integer.logJournalSegmentSize),
+                    Res.getInteger(R.integer.logJournalMaxSegments));
+            Logf.addSink(mJournal);
+        } catch (IOException e) {
+            Logf.ec("Failed to open log journal: %s", e.toString());
+        }
+
+        /* Keep recent records for the logs command */
+        mCapture = new LogCapture(Res.getInteger(R.integer.logCaptureSize),
+                Res.getInteger(R.integer.logCaptureMessageLength));
+        Logf.addSink(mCapture);
         setContentView(R.layout.activity_main);
 
         page1 = requireViewById(R.id.page1);
@@ -118,90 +184,252 @@ public class MainActivity extends Activity {
         /* Begin setup for page 1 */
 
         /* Create the debug text controller */
-        debug = new DebugPageController();
-
-        debug.register("env", arg -> {
-            Context context = getApplicationContext();
-
-            /* System.getProperties */
-            for (String propKey : System.getProperties().stringPropertyNames()) {
-                debug.debug(Str.kvToHtml("prop", propKey, System.getProperty(propKey)));
-            }
-            /* System.getenv */
-            for (String envKey : System.getenv().keySet()) {
-                debug.debug(Str.kvToHtml("env", envKey, System.getenv(envKey)));
-            }
-            /* Directories */
-            debug.debug(Str.kvToHtml("cache", context.getCacheDir().getAbsolutePath()));
-            debug.debug(Str.kvToHtml("code cache", context.getCodeCacheDir().getAbsolutePath()));
-            debug.debug(Str.kvToHtml("data", context.getDataDir().getAbsolutePath()));
-            debug.debug(Str.kvToHtml("files", context.getFilesDir().getAbsolutePath()));
-            debug.debug(Str.kvToHtml("obb", context.getObbDir().getAbsolutePath()));
-            if (context.getExternalCacheDir() != null) {
-                debug.debug(Str.kvToHtml("external cache", context.getExternalCacheDir().getAbsolutePath()));
+        mHistory = new CommandHistory(new File(getFilesDir(), "history"),
+                Res.getInteger(R.integer.debugHistoryMaxEntries));
+        debug = new DebugPageController(mCapture, mHistory);
+
+        debug.register("env", new ArgSchema()
+                .flag("-r", "capture the environment again instead of reusing the last snapshot")
+                .positional(ArgSchema.Param.string("prefix").optional()
+                        .describe("only entries whose keys start with this, ignoring case")), ctx -> {
+            ArgSchema.Values args = ctx.getValues();
+            EnvSnapshot env = getEnvSnapshot(args.getFlag("-r"));
+            String prefix = args.getString("prefix");
+            List<EnvSnapshot.Entry> entries = env.withPrefix(prefix == null ? "" : prefix);
+            /* Style a batch, then print it, so cancelling stops between batches */
+            List<CharSequence> batch = new ArrayList<>(ENV_BATCH_LINES);
+            for (int i = 0; i < entries.size(); i += ENV_BATCH_LINES) {
+                if (ctx.isCancelled()) {
+                    return;
+                }
+                batch.clear();
+                for (EnvSnapshot.Entry e : entries.subList(i, Math.min(i + ENV_BATCH_LINES, entries.size()))) {
+                    batch.add(Str.kvToSpanned(e.getKey(), e.getValue(), e.getSource()));
+                }
+                for (CharSequence line : batch) {
+                    ctx.print(line);
+                }
             }
-            if (Debug.isDebuggerConnected()) {
-                debug.debug("Debugger is connected");
+            if (prefix != null) {
+                ctx.print("env: %d of %d entries start with \"%s\"", entries.size(),
+                        env.getEntries().size(), prefix);
+            } else if (Debug.isDebuggerConnected()) {
+                ctx.print("Debugger is connected");
             }
         }, "display information about the environment");
 
-        debug.register("!", arg -> {
-            debug.debug("Executing system command \"%s\"", arg);
+        debug.register("!", new ArgSchema().rest("command", "the command line"), ctx -> {
+            String arg = ctx.getValues().getRest();
+            ctx.print("Executing system command \"%s\"", arg);
+            ProcessPump.Sink sink = (stderr, line) -> ctx.print((stderr ? "!! " : ">> ") + line);
             try {
-                Process p = Runtime.getRuntime().exec(arg);
-                BufferedReader stdout = new BufferedReader(new InputStreamReader(p.getInputStream()));
-                BufferedReader stderr = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-                /* Do not allow program to execute for longer than 60 seconds */
-                p.waitFor(60, TimeUnit.SECONDS);
-                String s;
-                while ((s = stdout.readLine()) != null) {
-                    debug.debug(">> " + s);
+                ProcessPump.Result result;
+                if (mUseShell) {
+                    result = getShell().run(arg, EXEC_TIMEOUT_SECONDS, TimeUnit.SECONDS, sink);
+                } else {
+                    Process p = Runtime.getRuntime().exec(arg);
+                    ProcessPump pump = new ProcessPump(EXEC_BUFFER_SIZE, EXEC_QUEUE_LINES,
+                            Res.getInteger(R.integer.debugOutputMaxBytes));
+                    result = pump.run(p, EXEC_TIMEOUT_SECONDS, TimeUnit.SECONDS, sink);
+                }
+                if (result.mTruncated) {
+                    ctx.print("Output truncated; %d bytes written", result.mBytes);
                 }
-                while ((s = stderr.readLine()) != null) {
-                    debug.debug("!! " + s);
+                if (result.mTimedOut) {
+                    ctx.fail("Command killed after %d seconds", EXEC_TIMEOUT_SECONDS);
+                } else if (result.mExitCode != 0) {
+                    ctx.fail("Command exited with status %d", result.mExitCode);
                 }
-            } catch (IOException | InterruptedException e) {
-                debug.debug(e.toString());
+            } catch (IOException e) {
+                ctx.fail("%s", e);
+            } catch (InterruptedException e) {
+                /* Cancellation is reported by the command executor */
+                Thread.currentThread().interrupt();
             } catch (Exception e) {
-                debug.debug("Unhandled exception: " + e.toString());
+                ctx.print("Unhandled exception: " + e.toString());
                 throw e;
             }
         }, "execute a system command");
 
-        debug.register("id", arg -> {
-            debug.debug("pid: %d, ppid: %d", Os.getpid(), Os.getppid());
-            debug.debug("uid: %d, euid: %d", Os.getuid(), Os.geteuid());
-            debug.debug("gid: %d, egid: %d", Os.getgid(), Os.getegid());
-            debug.debug("tid: %d", Os.gettid());
+        debug.register("shell", new ArgSchema()
+                .positional(ArgSchema.Param.choice("mode", "on", "off", "restart").optional()
+                        .describe("use the shell, stop using it, or start a new one")), ctx -> {
+            String mode = ctx.getValues().getString("mode");
+            if (mode == null) {
+                ctx.print("Persistent shell is %s (%s, started %d time(s))",
+                        mUseShell ? "on" : "off",
+                        getShell().isRunning() ? "running" : "not running",
+                        getShell().getStarts());
+                return;
+            }
+            switch (mode) {
+                case "on":
+                    mUseShell = true;
+                    ctx.print("System commands now run in a persistent shell");
+                    break;
+                case "off":
+                    mUseShell = false;
+                    getShell().close();
+                    ctx.print("System commands now run in a new process each");
+                    break;
+                case "restart":
+                    getShell().close();
+                    ctx.print("Shell stopped; the next command starts a new one");
+                    break;
+                default:
+                    break;
+            }
+        }, "run system commands in a persistent shell");
+
+        debug.register("id", new ArgSchema(), ctx -> {
+            ctx.print("pid: %d, ppid: %d", Os.getpid(), Os.getppid());
+            ctx.print("uid: %d, euid: %d", Os.getuid(), Os.geteuid());
+            ctx.print("gid: %d, egid: %d", Os.getgid(), Os.getegid());
+            ctx.print("tid: %d", Os.gettid());
+            Logf.event(LOG_TAG, Log.INFO)
+                    .kv("pid", Os.getpid()).kv("ppid", Os.getppid())
+                    .kv("uid", Os.getuid()).kv("euid", Os.geteuid())
+                    .kv("gid", Os.getgid()).kv("egid", Os.getegid())
+                    .kv("tid", Os.gettid())
+                    .emit();
         }, "get user/group ID information");
 
-        debug.register("title", arg -> {
-            mTitleController.getTicker().addMessage(arg);
+        debug.register("title", new ArgSchema().rest("message", "the message text"), ctx -> {
+            String arg = ctx.getValues().getRest();
+            runOnUiThread(() -> mTitleController.getTicker().addMessage(arg));
         }, "add new title message");
 
-        debug.register("html-title", arg -> {
-            mTitleController.getTicker().addMessage(Html.fromHtml(arg, 0));
+        debug.register("html-title", new ArgSchema().rest("message", "the message, as HTML"), ctx -> {
+            String arg = ctx.getValues().getRest();
+            Spanned message = Html.fromHtml(arg, 0);
+            runOnUiThread(() -> mTitleController.getTicker().addMessage(message));
         }, "add new HTML title message");
 
-        debug.register("page-anim", arg -> {
-            Integer animMode = Str.tryParseInteger(arg);
-            if (animMode == null) {
-                debug.debug("Failed to parse argument \"%s\" as an integer", arg);
-            } else if (animMode == PAGE_NO_ANIMATION || animMode == PAGE_FADE_ANIMATION || animMode == PAGE_SLIDE_ANIMATION) {
-                mPageAnimationType = animMode;
-                toast("Set page animation type to mode %d", animMode);
-            } else {
-                debug.debug("Invalid animation index %d", animMode);
-                toast("Invalid animation type %d", animMode);
+        debug.register("logdump", new ArgSchema()
+                .positional(ArgSchema.Param.integer("count", 1, LOGDUMP_MAX_LINES)
+                        .withDefault(LOGDUMP_DEFAULT_LINES).describe("number of entries to print")), ctx -> {
+            int count = ctx.getValues().getInt("count", LOGDUMP_DEFAULT_LINES);
+            /* Keep only the newest lines */
+            ArrayDeque<String> lines = new ArrayDeque<>();
+            try {
+                LogJournal.decode(getJournalDir(), line -> {
+                    if (lines.size() == count) {
+                        lines.removeFirst();
+                    }
+                    lines.addLast(line);
+                });
+            } catch (IOException e) {
+                ctx.fail("%s", e);
+            }
+            for (String line : lines) {
+                if (ctx.isCancelled()) {
+                    return;
+                }
+                ctx.print(line);
             }
+        }, "print the newest entries of the log journal");
+
+        debug.register("page-anim", new ArgSchema()
+                .positional(ArgSchema.Param.integer("mode", PAGE_NO_ANIMATION, PAGE_SLIDE_ANIMATION)
+                        .describe("0 for none, 1 to fade, 2 to slide")), ctx -> {
+            int animMode = ctx.getValues().getInt("mode", PAGE_NO_ANIMATION);
+            mPageAnimationType = animMode;
+            toast("Set page animation type to mode %d", animMode);
         }, "change the page animation type");
 
+        /* Run the startup script once per launch, not on every recreation */
+        if (savedInstanceState == null && new File(getFilesDir(), AUTORUN_SCRIPT).isFile()) {
+            debug.execute("source " + AUTORUN_SCRIPT);
+        }
+
         /* Begin setup for page 2 */
 
         /* Begin setup for page 3 */
 
     }
 
+    /** Stop the activity.
+     *
+     * The debug page is no longer visible, so work done only for it stops.
+     */
+    @Override
+    protected void onStop() {
+        if (debug != null) {
+            debug.onPageHidden();
+        }
+        super.onStop();
+    }
+
+    /** Destroy the activity.
+     *
+     * Pending asynchronous log records are written before returning.
+     */
+    @Override
+    protected void onDestroy() {
+        if (debug != null) {
+            debug.shutdown();
+        }
+        if (mShell != null) {
+            mShell.close();
+        }
+        if (mHistory != null) {
+            mHistory.close();
+        }
+        Logf.stopAsync();
+        if (mJournal != null) {
+            Logf.removeSink(mJournal);
+            mJournal.close();
+            mJournal = null;
+        }
+        Logf.removeSink(mCapture);
+        super.onDestroy();
+    }
+
+    /** Get the persistent shell used by the {@code !} command.
+     *
+     * @return The shell session.
+     */
+    private synchronized ShellSession getShell() {
+        if (mShell == null) {
+            mShell = new ShellSession("sh", EXEC_BUFFER_SIZE, EXEC_QUEUE_LINES,
+                    Res.getInteger(R.integer.debugOutputMaxBytes));
+        }
+        return mShell;
+    }
+
+    /** Get a snapshot of the environment, capturing one if needed.
+     *
+     * The last snapshot is reused until it is {@code ENV_SNAPSHOT_TTL_SECONDS}
+     * old.
+     *
+     * @param refresh True to capture a new snapshot regardless of age.
+     * @return The snapshot.
+     */
+    private synchronized EnvSnapshot getEnvSnapshot(boolean refresh) {
+        if (refresh || mEnvSnapshot == null || !mEnvSnapshot.isFresh(ENV_SNAPSHOT_TTL_SECONDS, TimeUnit.SECONDS)) {
+            Context context = getApplicationContext();
+            Map<String, String> dirs = new LinkedHashMap<>();
+            dirs.put("cache", context.getCacheDir().getAbsolutePath());
+            dirs.put("code cache", context.getCodeCacheDir().getAbsolutePath());
+            dirs.put("data", context.getDataDir().getAbsolutePath());
+            dirs.put("files", context.getFilesDir().getAbsolutePath());
+            dirs.put("obb", context.getObbDir().getAbsolutePath());
+            if (context.getExternalCacheDir() != null) {
+                dirs.put("external cache", context.getExternalCacheDir().getAbsolutePath());
+            }
+            mEnvSnapshot = EnvSnapshot.capture(dirs);
+        }
+        return mEnvSnapshot;
+    }
+
+    /** Get the directory holding the log journal.
+     *
+     * @return The log journal directory.
+     */
+    private File getJournalDir() {
+        return new File(getFilesDir(), "journal");
+    }
+
     /** Intercepts a touch event before any of the children views see it.
      *
      * @param event The motion event to process.
@@ -238,6 +466,9 @@ public class MainActivity extends Activity {
             /* Transition between mCurrentPage and targetPage */
             animatePageTransition(mCurrentPage, targetPage);
             /* Handle code unique to each page */
+            if (mCurrentPage == page1 && debug != null) {
+                debug.onPageHidden();
+            }
         }
         mCurrentPage = targetPage;
     }
@@ -309,7 +540,8 @@ public class MainActivity extends Activity {
 
     /** Show a "Snack Bar" message.
      *
-     * The "Snack Bar" uses the {@code R.id.top} (top-level) view.
+     * The "Snack Bar" uses the {@code R.id.top} (top-level) view. This may be
+     * called from any thread.
      *
      * @param text The text to show.
      */
@@ -323,16 +555,18 @@ public class MainActivity extends Activity {
      * @param text The text to show.
      */
     private void showSnack(@NotNull View view, @NotNull CharSequence text) {
-        Snackbar.make(view, text, Snackbar.LENGTH_LONG).setAction("Action", null).show();
+        runOnUiThread(() -> Snackbar.make(view, text, Snackbar.LENGTH_LONG).setAction("Action", null).show());
     }
 
     /** Show a toast message with a short duration.
+     *
+     * This may be called from any thread.
      *
      * @param text The toast message to show.
      * @see Toast
      */
     private void toast(String text) {
-        Toast.makeText(getApplicationContext(), text, Toast.LENGTH_SHORT).show();
+        runOnUiThread(() -> Toast.makeText(getApplicationContext(), text, Toast.LENGTH_SHORT).show());
     }
 
     /** Show a formatted toast message with a short duration.
@@ -368,8 +602,9 @@ public class MainActivity extends Activity {
             /* Page 1 */
             case R.id.btDebug: {
                 String cmd = debug.getDebugCommand();
-                if (debug.isRegistered(cmd)) {
-                    debug.execute(cmd);
+                if (debug.submit(cmd)) {
+                    /* The line is kept in the history */
+                    debug.clearDebugCommand();
                 } else {
                     showSnack(String.format("Failed to execute command \"%s\": no such command", cmd));
                 }
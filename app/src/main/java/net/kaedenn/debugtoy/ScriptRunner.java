@@ -0,0 +1,135 @@
+package net.kaedenn.debugtoy;
+
+import android.os.SystemClock;
+
+import net.kaedenn.debugtoy.util.ArgSchema;
+import net.kaedenn.debugtoy.util.CommandStats;
+import net.kaedenn.debugtoy.util.ScriptReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** The {@code source} command, which runs a file of debug commands.
+ *
+ * The script is read a command at a time (see {@link ScriptReader}) on the
+ * worker thread running {@code source}, and each command runs to completion
+ * before the next is read. Each command is echoed before it runs, and its
+ * wall time is printed once it finishes, followed by the total time for the
+ * script, so a script doubles as a repeatable benchmark.
+ *
+ * A script line {@code set -e} makes the rest of the script stop at the
+ * first command that fails (as does {@code source -e}), and {@code set +e}
+ * turns this off again. A command fails if it names no command, has
+ * invalid arguments, reports a failure, throws, or is cancelled. The script
+ * fails if any of its commands does.
+ *
+ * Scripts may run other scripts, up to a fixed depth.
+ */
+final class ScriptRunner {
+    /* Most scripts that may be running within one another */
+    private static final int MAX_DEPTH = 8;
+
+    /* Script lines changing the abort-on-failure option */
+    private static final Pattern SET_OPTION = Pattern.compile("^set\\s+([-+])e$");
+
+    private ScriptRunner() {
+    }
+
+    /** Register the {@code source} command.
+     *
+     * @param debug The controller to register with, which runs the script's
+     * commands.
+     */
+    static void register(DebugPageController debug) {
+        debug.register("source", new ArgSchema()
+                .flag("-e", "stop at the first command that fails")
+                .flag("-q", "do not echo each command before running it")
+                .line("file", "the script, relative to the app's files directory"),
+                ctx -> run(debug, ctx), "run the commands in a file, timing each one");
+    }
+
+    /* Resolve a script path against the app's files directory */
+    private static File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(MainActivity.getInstance().getFilesDir(), path);
+    }
+
+    /* Count the scripts running this one, including itself */
+    private static int depth(CommandContext ctx) {
+        int depth = 0;
+        for (CommandContext c = ctx; c != null; c = c.getParent()) {
+            if (c.getInvocation().getName().equals("source")) {
+                ++depth;
+            }
+        }
+        return depth;
+    }
+
+    private static void run(DebugPageController debug, CommandContext ctx) {
+        ArgSchema.Values args = ctx.getValues();
+        if (depth(ctx) > MAX_DEPTH) {
+            ctx.fail("source: scripts nested more than %d deep", MAX_DEPTH);
+            return;
+        }
+        String path = String.join(" ", args.getRestWords());
+        if (path.isEmpty()) {
+            ctx.fail("source: no script named");
+            return;
+        }
+        File file = resolve(path);
+        String name = file.getName();
+        boolean exitOnError = args.getFlag("-e");
+        boolean echo = !args.getFlag("-q");
+        int commands = 0;
+        int failures = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        try (ScriptReader script = new ScriptReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while (!ctx.isCancelled() && (line = script.next()) != null) {
+                int number = script.getLineNumber();
+                Matcher m = SET_OPTION.matcher(line);
+                if (m.matches()) {
+                    exitOnError = m.group(1).equals("-");
+                    continue;
+                }
+                if (echo) {
+                    ctx.print("%s:%d> %s", name, number, line);
+                }
+                long lineStart = SystemClock.elapsedRealtimeNanos();
+                boolean ok = debug.runLine(line, ctx);
+                long elapsed = SystemClock.elapsedRealtimeNanos() - lineStart;
+                if (ctx.isCancelled()) {
+                    /* The executor reports the cancellation */
+                    return;
+                }
+                ++commands;
+                ctx.print("%s:%d: %.3f ms%s", name, number, CommandStats.millis(elapsed),
+                        ok ? "" : " (failed)");
+                if (!ok) {
+                    ++failures;
+                    if (exitOnError) {
+                        ctx.print("source: %s: stopping at line %d", name, number);
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            ctx.fail("source: %s", e.getMessage());
+            return;
+        }
+        if (ctx.isCancelled()) {
+            return;
+        }
+        ctx.print("source: %s: %d command(s) in %.3f ms, %d failed", name, commands,
+                CommandStats.millis(SystemClock.elapsedRealtimeNanos() - start), failures);
+        if (failures > 0) {
+            ctx.setFailed();
+        }
+    }
+}
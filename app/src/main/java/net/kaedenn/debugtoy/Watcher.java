@@ -0,0 +1,247 @@
+package net.kaedenn.debugtoy;
+
+import android.text.SpannableStringBuilder;
+
+import net.kaedenn.debugtoy.util.ArgSchema;
+import net.kaedenn.debugtoy.util.Logf;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** The {@code watch} command, which re-runs a command periodically.
+ *
+ * {@code watch -n 1 id} runs {@code id} every second. Each run's output
+ * replaces the previous run's in a {@link DebugPageController.Region} of
+ * the output view instead of being appended, so watching a command for a
+ * long time does not fill the scrollback. When a run prints exactly what
+ * the previous run did, the output view is not touched at all.
+ *
+ * All watched commands run on a single shared scheduler thread, one at a
+ * time, with the interval measured from the end of one run to the start of
+ * the next; a slow command delays the others rather than piling up runs.
+ * At most {@link #MAX_WATCHES} commands are watched at once, and each run
+ * keeps at most {@link #MAX_LINES} lines.
+ *
+ * Watched commands stop when the debug page is hidden, with
+ * {@code watch -s}, or when the controller shuts down.
+ */
+final class Watcher {
+    private static final String LOG_TAG = "watcher";
+    static {
+        Logf.getInstance().add(Watcher.class, LOG_TAG);
+    }
+
+    /** Most commands watched at once. */
+    static final int MAX_WATCHES = 4;
+
+    /** Most lines of a single run shown. */
+    static final int MAX_LINES = 200;
+
+    private final DebugPageController mDebug;
+
+    /* Shared by every watched command */
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "debug-watch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /* Watched commands by number; guarded by this */
+    private final Map<Integer, Watch> mWatches = new LinkedHashMap<>();
+    private int mNextId = 1;
+
+    /** One watched command. */
+    private final class Watch implements Runnable {
+        final int mId;
+        final String mLine;
+        final double mSeconds;
+        final DebugPageController.Region mRegion = new DebugPageController.Region();
+        ScheduledFuture<?> mFuture = null;
+
+        /* Context of the run in progress, and the previous run's text;
+         * accessed only on the scheduler thread, apart from cancelling */
+        volatile CommandContext mCurrent = null;
+        String mLastText = null;
+
+        Watch(int id, String line, double seconds) {
+            mId = id;
+            mLine = line;
+            mSeconds = seconds;
+        }
+
+        /* Run the command once; a run which throws stops the watch, since
+         * the scheduler would otherwise stop running it silently */
+        @Override
+        public void run() {
+            try {
+                runOnce();
+            } catch (Throwable t) {
+                Logf.ec("Watched command %s failed: %s", this, t);
+                synchronized (Watcher.this) {
+                    /* Holding the lock, mFuture has been set */
+                    if (mWatches.remove(mId) == this) {
+                        mFuture.cancel(false);
+                        mDebug.debug("[watch %d] stopped: %s", mId, t);
+                    }
+                }
+            } finally {
+                mCurrent = null;
+            }
+        }
+
+        /* Run the command once and show its output if it changed */
+        private void runOnce() {
+            List<CharSequence> lines = new ArrayList<>();
+            int[] dropped = {0};
+            CommandContext context = new CommandContext(Invocation.parse("watch " + mLine), line -> {
+                synchronized (lines) {
+                    if (lines.size() < MAX_LINES) {
+                        lines.add(line);
+                    } else {
+                        ++dropped[0];
+                    }
+                }
+            });
+            mCurrent = context;
+            boolean ok = mDebug.runLine(mLine, context);
+            if (context.isCancelled()) {
+                return;
+            }
+            SpannableStringBuilder body = new SpannableStringBuilder();
+            synchronized (lines) {
+                for (CharSequence line : lines) {
+                    body.append('\n').append(line);
+                }
+                if (dropped[0] > 0) {
+                    body.append('\n').append(String.format("(%d more lines)", dropped[0]));
+                }
+            }
+            String text = body.toString();
+            if (text.equals(mLastText)) {
+                /* Unchanged; leave the output view alone */
+                return;
+            }
+            mLastText = text;
+            String header = String.format("[watch %d] every %.1f s: %s%s (changed %tT)",
+                    mId, mSeconds, mLine, ok ? "" : " (failed)", new Date());
+            SpannableStringBuilder region = new SpannableStringBuilder(header);
+            region.append(body);
+            mDebug.setRegion(mRegion, region);
+        }
+
+        /* Stop scheduling runs and cancel the run in progress */
+        void stop() {
+            CommandContext current = mCurrent;
+            if (current != null) {
+                current.cancel();
+            }
+            mFuture.cancel(true);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d: every %.1f s: %s", mId, mSeconds, mLine);
+        }
+    }
+
+    /** Construct the watcher and register the {@code watch} command.
+     *
+     * @param debug The controller which runs watched commands and shows
+     * their output.
+     */
+    Watcher(DebugPageController debug) {
+        mDebug = debug;
+        debug.register(new Command("watch", this::execute,
+                "run a command every few seconds, replacing its output in place",
+                new ArgSchema()
+                        .option("-n", ArgSchema.Param.decimal("seconds", 0.1, 3600).withDefault(2.0)
+                                .describe("time between runs (default 2)"))
+                        .flag("-s", "stop every watched command")
+                        .line("command", "the command to run; with no command, list watched commands"),
+                true));
+    }
+
+    /** Executes the command "watch".
+     *
+     * @param ctx The command's context.
+     */
+    private void execute(CommandContext ctx) {
+        ArgSchema.Values args = ctx.getValues();
+        if (args.getFlag("-s")) {
+            ctx.print("watch: stopped %d command(s)", stopAll(null));
+            return;
+        }
+        String line = args.getRest().trim();
+        if (line.isEmpty()) {
+            synchronized (this) {
+                if (mWatches.isEmpty()) {
+                    ctx.print("watch: no commands are being watched");
+                }
+                for (Watch w : mWatches.values()) {
+                    ctx.print(w.toString());
+                }
+            }
+            return;
+        }
+        for (CommandContext c = ctx.getParent(); c != null; c = c.getParent()) {
+            if (c.getInvocation().getName().equals("watch")) {
+                ctx.fail("watch: cannot watch a command started by watch");
+                return;
+            }
+        }
+        if (!mDebug.check(line, text -> ctx.print("watch: %s", text))) {
+            ctx.setFailed();
+            return;
+        }
+        double seconds = args.getDouble("seconds", 2.0);
+        Watch watch;
+        synchronized (this) {
+            if (mWatches.size() >= MAX_WATCHES) {
+                ctx.fail("watch: already watching %d commands; stop them with \"watch -s\"", MAX_WATCHES);
+                return;
+            }
+            watch = new Watch(mNextId++, line, seconds);
+            try {
+                watch.mFuture = mScheduler.scheduleWithFixedDelay(watch, 0,
+                        Math.round(seconds * 1e9), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                ctx.fail("watch: shutting down");
+                return;
+            }
+            mWatches.put(watch.mId, watch);
+        }
+        Logf.dc("Watching %s", watch);
+    }
+
+    /** Stop every watched command.
+     *
+     * @param reason Why the commands are stopped, which is shown in the debug
+     * output, or {@code null} to stop them silently.
+     * @return The number of commands stopped.
+     */
+    synchronized int stopAll(String reason) {
+        int count = mWatches.size();
+        for (Watch w : mWatches.values()) {
+            w.stop();
+            if (reason != null) {
+                mDebug.debug("[watch %d] stopped: %s", w.mId, reason);
+            }
+        }
+        mWatches.clear();
+        return count;
+    }
+
+    /** Stop every watched command and the scheduler thread. */
+    void shutdown() {
+        stopAll(null);
+        mScheduler.shutdownNow();
+    }
+}
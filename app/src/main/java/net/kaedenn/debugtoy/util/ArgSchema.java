@@ -0,0 +1,533 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/** Declared arguments of a command.
+ *
+ * A schema lists a command's flags (such as {@code -v}), options taking a
+ * value (such as {@code -t tag}), positional arguments, and optionally a
+ * trailing "rest" argument taking the remainder of the line. Option values
+ * and positional arguments are typed: text, integers or decimals within a
+ * range, or one of a fixed set of words.
+ *
+ * {@link #parse} splits the arguments with a {@link Tokenizer}, so values
+ * may be quoted, and checks every value against the schema before the
+ * command runs. The command then reads typed values from the resulting
+ * {@link Values} instead of parsing a string itself. Invalid input is
+ * reported through {@link Values#getError()}; parsing never throws.
+ *
+ * {@link #usage()} and {@link #describe()} generate help text from the
+ * schema.
+ *
+ * A schema is "raw" (see {@link #isRaw()}) if its rest argument takes the
+ * remainder of the command line verbatim, {@code |} and all: either the rest
+ * is all it has, or the rest was declared with {@link #line}. Command lines
+ * are not split into pipelines after a command with a raw schema, so that
+ * {@code ! ps | grep x} reaches the shell unchanged.
+ *
+ * Schemas are built once, by chaining the declaring methods, and may then
+ * be shared by any number of threads.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ArgSchema {
+
+    /** The type of an option value or positional argument. */
+    public enum Type {
+        STRING, INT, DECIMAL, CHOICE
+    }
+
+    /** A typed value: an option's value or a positional argument. */
+    public static final class Param {
+        private final String mName;
+        private final Type mType;
+        private double mMin = Double.NEGATIVE_INFINITY;
+        private double mMax = Double.POSITIVE_INFINITY;
+        private String[] mChoices = new String[0];
+        private String mDescription = "";
+        private boolean mOptional = false;
+        private Object mDefault = null;
+
+        private Param(String name, Type type) {
+            mName = name;
+            mType = type;
+        }
+
+        /** Declare a text value.
+         *
+         * @param name The value's name, used to look it up and in help.
+         * @return The parameter.
+         */
+        public static Param string(String name) {
+            return new Param(name, Type.STRING);
+        }
+
+        /** Declare an integer value within a range.
+         *
+         * @param name The value's name, used to look it up and in help.
+         * @param min The smallest value accepted.
+         * @param max The largest value accepted.
+         * @return The parameter.
+         */
+        public static Param integer(String name, int min, int max) {
+            Param p = new Param(name, Type.INT);
+            p.mMin = min;
+            p.mMax = max;
+            return p;
+        }
+
+        /** Declare a decimal value within a range.
+         *
+         * @param name The value's name, used to look it up and in help.
+         * @param min The smallest value accepted.
+         * @param max The largest value accepted.
+         * @return The parameter.
+         */
+        public static Param decimal(String name, double min, double max) {
+            Param p = new Param(name, Type.DECIMAL);
+            p.mMin = min;
+            p.mMax = max;
+            return p;
+        }
+
+        /** Declare a value which must be one of a set of words.
+         *
+         * Matching ignores case; the value is the word as declared.
+         *
+         * @param name The value's name, used to look it up and in help.
+         * @param choices The accepted words.
+         * @return The parameter.
+         */
+        public static Param choice(String name, String... choices) {
+            Param p = new Param(name, Type.CHOICE);
+            p.mChoices = choices.clone();
+            return p;
+        }
+
+        /** Set the description shown in help.
+         *
+         * @param description The description.
+         * @return This parameter.
+         */
+        public Param describe(String description) {
+            mDescription = description;
+            return this;
+        }
+
+        /** Allow the value to be omitted.
+         *
+         * @return This parameter.
+         */
+        public Param optional() {
+            mOptional = true;
+            return this;
+        }
+
+        /** Allow the value to be omitted, using a default instead.
+         *
+         * @param value The default, of the parameter's type: a
+         * {@code String}, {@code Integer}, or {@code Double}.
+         * @return This parameter.
+         */
+        public Param withDefault(Object value) {
+            mOptional = true;
+            mDefault = value;
+            return this;
+        }
+
+        /** Get the value's name.
+         *
+         * @return The name.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /** Get the value's type.
+         *
+         * @return The type.
+         */
+        public Type getType() {
+            return mType;
+        }
+
+        /** Describe the values accepted, such as {@code "integer 0..2"}.
+         *
+         * @return The description of the type.
+         */
+        public String typeText() {
+            switch (mType) {
+                case INT:
+                    return String.format(Locale.ROOT, "integer %d..%d", (int) mMin, (int) mMax);
+                case DECIMAL:
+                    return String.format(Locale.ROOT, "number %s..%s", mMin, mMax);
+                case CHOICE:
+                    return String.join("|", mChoices);
+                default:
+                    return "text";
+            }
+        }
+
+        /* Convert a word to the parameter's type, or describe the problem */
+        private Object convert(String word, StringBuilder error) {
+            switch (mType) {
+                case INT: {
+                    Integer value = Str.tryParseInteger(word);
+                    if (value == null || value < mMin || value > mMax) {
+                        error.append(String.format("%s must be an %s, not \"%s\"", mName, typeText(), word));
+                        return null;
+                    }
+                    return value;
+                }
+                case DECIMAL: {
+                    Double value = Str.tryParseDouble(word);
+                    if (value == null || value < mMin || value > mMax) {
+                        error.append(String.format("%s must be a %s, not \"%s\"", mName, typeText(), word));
+                        return null;
+                    }
+                    return value;
+                }
+                case CHOICE:
+                    for (String choice : mChoices) {
+                        if (choice.equalsIgnoreCase(word)) {
+                            return choice;
+                        }
+                    }
+                    error.append(String.format("%s must be one of %s, not \"%s\"", mName, typeText(), word));
+                    return null;
+                default:
+                    return word;
+            }
+        }
+    }
+
+    /** The arguments of one invocation, checked against the schema. */
+    public static final class Values {
+        private final Map<String, Object> mValues = new HashMap<>();
+        private List<String> mRestWords = Collections.emptyList();
+        private String mRest = "";
+        private String mError = null;
+
+        private Values() {
+        }
+
+        /** Get the reason the arguments were rejected.
+         *
+         * @return The error, or {@code null} if the arguments are valid.
+         */
+        public String getError() {
+            return mError;
+        }
+
+        /** Return whether or not the arguments are valid.
+         *
+         * @return True if the arguments match the schema.
+         */
+        public boolean isValid() {
+            return mError == null;
+        }
+
+        /** Return whether or not a value was given or has a default.
+         *
+         * @param name The value's name, or a flag such as {@code "-v"}.
+         * @return True if the value is present.
+         */
+        public boolean has(String name) {
+            return mValues.containsKey(name);
+        }
+
+        /** Return whether or not a flag was given.
+         *
+         * @param flag The flag, such as {@code "-v"}.
+         * @return True if the flag was given.
+         */
+        public boolean getFlag(String flag) {
+            return mValues.containsKey(flag);
+        }
+
+        /** Get a value as text.
+         *
+         * @param name The value's name.
+         * @return The value, or {@code null} if it is not present.
+         */
+        public String getString(String name) {
+            Object value = mValues.get(name);
+            return (value == null) ? null : value.toString();
+        }
+
+        /** Get an integer value.
+         *
+         * @param name The name of an integer value.
+         * @param fallback The result if the value is not present.
+         * @return The value.
+         */
+        public int getInt(String name, int fallback) {
+            Object value = mValues.get(name);
+            return (value instanceof Number) ? ((Number) value).intValue() : fallback;
+        }
+
+        /** Get a decimal value.
+         *
+         * @param name The name of a decimal value.
+         * @param fallback The result if the value is not present.
+         * @return The value.
+         */
+        public double getDouble(String name, double fallback) {
+            Object value = mValues.get(name);
+            return (value instanceof Number) ? ((Number) value).doubleValue() : fallback;
+        }
+
+        /** Get the rest of the line, exactly as written.
+         *
+         * @return The rest of the line, or the empty string.
+         */
+        public String getRest() {
+            return mRest;
+        }
+
+        /** Get the rest of the line as words, with quoting removed.
+         *
+         * @return The words.
+         */
+        public List<String> getRestWords() {
+            return mRestWords;
+        }
+    }
+
+    private final Map<String, String> mFlags = new LinkedHashMap<>();
+    private final Map<String, Param> mOptions = new LinkedHashMap<>();
+    private final List<Param> mPositionals = new ArrayList<>();
+    private String mRestName = null;
+    private String mRestDescription = null;
+    private boolean mRestIsLine = false;
+
+    /** Declare a flag, which takes no value.
+     *
+     * @param flag The flag, such as {@code "-v"}.
+     * @param description The description shown in help.
+     * @return This schema.
+     */
+    public ArgSchema flag(String flag, String description) {
+        mFlags.put(flag, description);
+        return this;
+    }
+
+    /** Declare an option, which is followed by a value.
+     *
+     * Options are always optional; use {@link Param#withDefault} to give
+     * one a value when omitted.
+     *
+     * @param flag The option, such as {@code "-t"}.
+     * @param param The option's value.
+     * @return This schema.
+     */
+    public ArgSchema option(String flag, Param param) {
+        param.mOptional = true;
+        mOptions.put(flag, param);
+        return this;
+    }
+
+    /** Declare the next positional argument.
+     *
+     * @param param The argument. Optional arguments must follow the required
+     * ones.
+     * @return This schema.
+     * @throws IllegalArgumentException If a required argument follows an
+     * optional one.
+     */
+    public ArgSchema positional(Param param) {
+        if (!param.mOptional && !mPositionals.isEmpty() && mPositionals.get(mPositionals.size() - 1).mOptional) {
+            throw new IllegalArgumentException("required argument " + param.mName + " follows an optional one");
+        }
+        mPositionals.add(param);
+        return this;
+    }
+
+    /** Declare that the words after the positional arguments are kept.
+     *
+     * If the schema has nothing else, the arguments are not tokenized at
+     * all: the rest is the whole argument string, quotes and all.
+     *
+     * @param name The name shown in help.
+     * @param description The description shown in help.
+     * @return This schema.
+     */
+    public ArgSchema rest(String name, String description) {
+        mRestName = name;
+        mRestDescription = description;
+        return this;
+    }
+
+    /** Declare that the rest of the command line, {@code |} and all, is kept.
+     *
+     * This is {@link #rest} for arguments holding another command line or a
+     * path, which a {@code |} must never split.
+     *
+     * @param name The name shown in help.
+     * @param description The description shown in help.
+     * @return This schema.
+     */
+    public ArgSchema line(String name, String description) {
+        mRestIsLine = true;
+        return rest(name, description);
+    }
+
+    /** Return whether or not the rest argument takes the line verbatim.
+     *
+     * @return True if the schema has only a rest argument, or its rest
+     * argument was declared with {@link #line}.
+     */
+    public boolean isRaw() {
+        return mRestName != null && (mRestIsLine
+                || (mFlags.isEmpty() && mOptions.isEmpty() && mPositionals.isEmpty()));
+    }
+
+    /** Check the arguments of one invocation against the schema.
+     *
+     * @param args The arguments string.
+     * @return The typed values; check {@link Values#getError()} first.
+     */
+    public Values parse(String args) {
+        Values values = new Values();
+        if (mRestName != null && mFlags.isEmpty() && mOptions.isEmpty() && mPositionals.isEmpty()) {
+            /* Pass the arguments through untouched */
+            values.mRest = (args == null) ? "" : args.trim();
+            values.mRestWords = Collections.singletonList(values.mRest);
+            return values;
+        }
+        Tokenizer words = Tokenizer.tokenize(args);
+        if (words.getError() != null) {
+            values.mError = words.getError();
+            return values;
+        }
+        StringBuilder error = new StringBuilder();
+        int position = 0;
+        boolean optionsDone = false;
+        for (int i = 0; i < words.size(); ++i) {
+            String word = words.get(i);
+            if (!optionsDone && word.equals("--")) {
+                optionsDone = true;
+                continue;
+            }
+            if (!optionsDone && word.length() > 1 && word.charAt(0) == '-' && !Str.isDecimal(word)) {
+                if (mFlags.containsKey(word)) {
+                    values.mValues.put(word, Boolean.TRUE);
+                    continue;
+                }
+                Param option = mOptions.get(word);
+                if (option == null) {
+                    values.mError = String.format("unknown option %s", word);
+                    return values;
+                }
+                if (++i == words.size()) {
+                    values.mError = String.format("option %s needs a value (%s)", word, option.mName);
+                    return values;
+                }
+                Object value = option.convert(words.get(i), error);
+                if (value == null) {
+                    values.mError = error.toString();
+                    return values;
+                }
+                values.mValues.put(option.mName, value);
+            } else if (position < mPositionals.size()) {
+                Param param = mPositionals.get(position++);
+                Object value = param.convert(word, error);
+                if (value == null) {
+                    values.mError = error.toString();
+                    return values;
+                }
+                values.mValues.put(param.mName, value);
+            } else if (mRestName != null) {
+                values.mRest = words.rest(i);
+                values.mRestWords = new ArrayList<>(words.getWords().subList(i, words.size()));
+                break;
+            } else {
+                values.mError = String.format("unexpected argument \"%s\"", word);
+                return values;
+            }
+        }
+        for (; position < mPositionals.size(); ++position) {
+            Param param = mPositionals.get(position);
+            if (!param.mOptional) {
+                values.mError = String.format("missing argument <%s>", param.mName);
+                return values;
+            }
+        }
+        for (Param param : allParams()) {
+            if (param.mDefault != null && !values.mValues.containsKey(param.mName)) {
+                values.mValues.put(param.mName, param.mDefault);
+            }
+        }
+        return values;
+    }
+
+    private List<Param> allParams() {
+        List<Param> params = new ArrayList<>(mOptions.values());
+        params.addAll(mPositionals);
+        return params;
+    }
+
+    /** Get a one-line summary of the arguments.
+     *
+     * For example, {@code [-v] [-t tag] <count> [pattern...]}.
+     *
+     * @return The summary, or the empty string if there are no arguments.
+     */
+    public String usage() {
+        StringBuilder sb = new StringBuilder();
+        for (String flag : mFlags.keySet()) {
+            sb.append('[').append(flag).append("] ");
+        }
+        for (Map.Entry<String, Param> option : mOptions.entrySet()) {
+            sb.append('[').append(option.getKey()).append(' ').append(option.getValue().mName).append("] ");
+        }
+        for (Param param : mPositionals) {
+            sb.append(param.mOptional ? "[" : "<").append(param.mName).append(param.mOptional ? "] " : "> ");
+        }
+        if (mRestName != null) {
+            sb.append('[').append(mRestName).append("...] ");
+        }
+        return sb.toString().trim();
+    }
+
+    /** Describe each argument, one per line.
+     *
+     * @return The descriptions.
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, String> flag : mFlags.entrySet()) {
+            lines.add(describeLine(flag.getKey(), null, flag.getValue()));
+        }
+        for (Map.Entry<String, Param> option : mOptions.entrySet()) {
+            lines.add(describeLine(option.getKey() + " " + option.getValue().mName, option.getValue(), null));
+        }
+        for (Param param : mPositionals) {
+            lines.add(describeLine(param.mName, param, null));
+        }
+        if (mRestName != null) {
+            lines.add(describeLine(mRestName + "...", null, mRestDescription));
+        }
+        return lines;
+    }
+
+    private static String describeLine(String name, Param param, String description) {
+        StringBuilder sb = new StringBuilder();
+        if (param != null) {
+            sb.append(param.typeText());
+            if (param.mDefault != null) {
+                sb.append(", default ").append(param.mDefault);
+            }
+            description = param.mDescription;
+        }
+        if (description != null && !description.isEmpty()) {
+            sb.append(sb.length() > 0 ? ": " : "").append(description);
+        }
+        return String.format("  %-12s %s", name, sb);
+    }
+}
@@ -0,0 +1,327 @@
+package net.kaedenn.debugtoy.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/** Lines entered at a command prompt, kept in memory and in a file.
+ *
+ * The file is an append-only log with one entry per line (newlines and
+ * backslashes within an entry are escaped). Entries are held in memory in
+ * order, oldest first, and are numbered from 1.
+ *
+ * All file access happens on a single background thread, in order: the file
+ * is read when the history is constructed, without delaying the caller, and
+ * each entry added is appended after that. Entries added before loading
+ * completes are kept and follow the loaded ones. Once the file holds twice
+ * the entries kept in memory, it is rewritten with just those entries.
+ *
+ * {@link #search} scans backwards from a given entry, so an incremental
+ * search whose query only grows can resume from its last match instead of
+ * from the newest entry; each step costs only the entries skipped.
+ *
+ * All methods may be called from any thread.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class CommandHistory implements Closeable {
+    private static final String LOG_TAG = "command-history";
+    static {
+        Logf.getInstance().add(CommandHistory.class, LOG_TAG);
+    }
+
+    private final File mFile;
+    private final int mMaxEntries;
+
+    /* Entries, oldest first; guarded by mLock */
+    private final Object mLock = new Object();
+    private final ArrayList<String> mEntries = new ArrayList<>();
+    /* Set by clear(), so that loading afterwards drops the file's entries
+     * (which the queued rewrite removes from the file); guarded by mLock */
+    private boolean mCleared = false;
+
+    /* Lines in the file, and the newest entries written to it (which may
+     * lag behind mEntries); accessed only on the I/O thread */
+    private int mFileLines = 0;
+    private final ArrayDeque<String> mWritten = new ArrayDeque<>();
+
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+    private final ExecutorService mIo = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "command-history");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Construct the history and start loading its file.
+     *
+     * @param file The history file; created when the first entry is added.
+     * @param maxEntries The most entries to keep; older entries are
+     * forgotten.
+     */
+    public CommandHistory(File file, int maxEntries) {
+        mFile = file;
+        mMaxEntries = maxEntries;
+        mIo.execute(this::load);
+    }
+
+    /** Wait for the file to be loaded.
+     *
+     * @param timeout The longest time to wait.
+     * @param unit The unit of {@code timeout}.
+     * @return True if the file has been loaded (or could not be read).
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitLoaded(long timeout, TimeUnit unit) throws InterruptedException {
+        return mLoaded.await(timeout, unit);
+    }
+
+    /** Return whether or not the file has been loaded.
+     *
+     * @return True if the entries from the file are present.
+     */
+    public boolean isLoaded() {
+        return mLoaded.getCount() == 0;
+    }
+
+    /** Add an entry.
+     *
+     * Blank lines, and lines repeating the newest entry, are ignored.
+     *
+     * @param line The line entered.
+     */
+    public void add(String line) {
+        if (line == null || line.trim().isEmpty()) {
+            return;
+        }
+        synchronized (mLock) {
+            if (!mEntries.isEmpty() && mEntries.get(mEntries.size() - 1).equals(line)) {
+                return;
+            }
+            mEntries.add(line);
+            trim();
+        }
+        mIo.execute(() -> append(line));
+    }
+
+    /** Get the number of entries.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        synchronized (mLock) {
+            return mEntries.size();
+        }
+    }
+
+    /** Get an entry by number.
+     *
+     * @param number The entry's number, from 1 (oldest) to {@link #size()}
+     * (newest).
+     * @return The entry, or {@code null} if there is no such entry.
+     */
+    public String get(int number) {
+        synchronized (mLock) {
+            return (number >= 1 && number <= mEntries.size()) ? mEntries.get(number - 1) : null;
+        }
+    }
+
+    /** Find the newest entry at or before a given one containing text.
+     *
+     * @param query The text to find; matching is case-sensitive.
+     * @param from The number of the newest entry to consider. Numbers past
+     * the newest entry start from the newest.
+     * @return The number of the matching entry, or 0 if none matches.
+     */
+    public int search(String query, int from) {
+        synchronized (mLock) {
+            for (int i = Math.min(from, mEntries.size()) - 1; i >= 0; --i) {
+                if (mEntries.get(i).contains(query)) {
+                    return i + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /** Forget every entry and empty the file.
+     *
+     * Clearing before the file has loaded also discards the entries being
+     * loaded.
+     */
+    public void clear() {
+        synchronized (mLock) {
+            mEntries.clear();
+            mCleared = true;
+        }
+        mIo.execute(() -> {
+            mWritten.clear();
+            rewrite();
+        });
+    }
+
+    /** Finish writing entries to the file and stop the background thread.
+     *
+     * Entries added afterwards are kept in memory only.
+     */
+    @Override
+    public void close() {
+        mIo.shutdown();
+        try {
+            if (!mIo.awaitTermination(1, TimeUnit.SECONDS)) {
+                Logf.wc("Timed out writing history");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Drop the oldest entries beyond the limit; caller holds mLock */
+    private void trim() {
+        int excess = mEntries.size() - mMaxEntries;
+        if (excess > 0) {
+            mEntries.subList(0, excess).clear();
+        }
+    }
+
+    private void load() {
+        List<String> loaded = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(mFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    loaded.add(decode(line));
+                }
+                ++mFileLines;
+            }
+        } catch (FileNotFoundException e) {
+            /* No history yet */
+        } catch (IOException e) {
+            Logf.wc("Failed to read history %s: %s", mFile, e);
+        }
+        remember(loaded);
+        synchronized (mLock) {
+            if (!mCleared) {
+                /* Entries added while loading are newer than the file's */
+                loaded.addAll(mEntries);
+                mEntries.clear();
+                mEntries.addAll(loaded);
+                trim();
+            }
+        }
+        mLoaded.countDown();
+        Logf.dc("Loaded %d history entries from %d lines", mWritten.size(), mFileLines);
+        if (mFileLines > 2 * mMaxEntries) {
+            rewrite();
+        }
+    }
+
+    /* Note entries as written, keeping only as many as are kept in memory */
+    private void remember(List<String> entries) {
+        for (String entry : entries) {
+            if (mWritten.size() == mMaxEntries) {
+                mWritten.removeFirst();
+            }
+            mWritten.addLast(entry);
+        }
+    }
+
+    private void append(String entry) {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(mFile, true), StandardCharsets.UTF_8)) {
+            out.write(encode(entry));
+            out.write('\n');
+            ++mFileLines;
+        } catch (IOException e) {
+            Logf.wc("Failed to append to history %s: %s", mFile, e);
+            return;
+        }
+        remember(Collections.singletonList(entry));
+        if (mFileLines > 2 * mMaxEntries) {
+            rewrite();
+        }
+    }
+
+    /* Replace the file with the entries written so far, atomically. Entries
+     * still waiting to be appended are not included, so they are not written
+     * twice. */
+    private void rewrite() {
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (String entry : mWritten) {
+                out.write(encode(entry));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            Logf.wc("Failed to write history %s: %s", temp, e);
+            return;
+        }
+        if (!temp.renameTo(mFile)) {
+            Logf.wc("Failed to replace history %s", mFile);
+            return;
+        }
+        mFileLines = mWritten.size();
+    }
+
+    /** Escape an entry so that it fits on one line.
+     *
+     * @param entry The entry.
+     * @return The entry with backslashes, newlines, and carriage returns
+     * escaped.
+     */
+    static String encode(String entry) {
+        if (entry.indexOf('\\') < 0 && entry.indexOf('\n') < 0 && entry.indexOf('\r') < 0) {
+            return entry;
+        }
+        StringBuilder sb = new StringBuilder(entry.length() + 8);
+        for (int i = 0; i < entry.length(); ++i) {
+            char c = entry.charAt(i);
+            if (c == '\\') {
+                sb.append("\\\\");
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Undo {@link #encode}.
+     *
+     * @param line A line of the history file.
+     * @return The entry.
+     */
+    static String decode(String line) {
+        if (line.indexOf('\\') < 0) {
+            return line;
+        }
+        StringBuilder sb = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,189 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Running totals for one command: how often it ran, for how long, and how
+ * much it printed.
+ *
+ * Wall time goes into a {@link LatencyHistogram} so that percentiles can be
+ * reported; CPU time, output lines, and output bytes are totals. Every
+ * method may be called from any thread.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class CommandStats {
+    /** Column names of {@link #toCsv()}, separated by commas. */
+    public static final String CSV_HEADER = "command,runs,errors,wall_p50_ms,wall_p90_ms,wall_p99_ms,"
+            + "wall_max_ms,wall_mean_ms,cpu_total_ms,cpu_mean_ms,lines,bytes";
+
+    private final String mName;
+    private final LatencyHistogram mWall = new LatencyHistogram();
+    private final LongAdder mErrors = new LongAdder();
+    private final LongAdder mCpuNanos = new LongAdder();
+    private final LongAdder mCpuRuns = new LongAdder();
+    private final LongAdder mLines = new LongAdder();
+    private final LongAdder mBytes = new LongAdder();
+
+    /** Construct empty statistics.
+     *
+     * @param name The command's name.
+     */
+    public CommandStats(String name) {
+        mName = name;
+    }
+
+    /** Record one run of the command.
+     *
+     * @param wallNanos The elapsed time, in nanoseconds.
+     * @param cpuNanos The CPU time used by the running thread, in
+     * nanoseconds, or a negative number if it is unknown.
+     * @param failed True if the command threw an exception.
+     */
+    public void record(long wallNanos, long cpuNanos, boolean failed) {
+        mWall.record(wallNanos);
+        if (cpuNanos >= 0) {
+            mCpuNanos.add(cpuNanos);
+            mCpuRuns.increment();
+        }
+        if (failed) {
+            mErrors.increment();
+        }
+    }
+
+    /** Record a line of output.
+     *
+     * @param line The line, counted as its UTF-8 length plus a newline.
+     */
+    public void addOutput(CharSequence line) {
+        mLines.increment();
+        mBytes.add(utf8Length(line) + 1);
+    }
+
+    /** Get the UTF-8 encoded length of text without encoding it.
+     *
+     * @param s The text.
+     * @return The number of bytes.
+     */
+    public static long utf8Length(CharSequence s) {
+        long bytes = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                ++i;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /** Get the command's name.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /** Get the number of runs recorded.
+     *
+     * @return The number of runs.
+     */
+    public long getRuns() {
+        return mWall.getCount();
+    }
+
+    /** Get the number of runs that threw an exception.
+     *
+     * @return The number of failed runs.
+     */
+    public long getErrors() {
+        return mErrors.sum();
+    }
+
+    /** Get the distribution of elapsed times.
+     *
+     * @return The histogram, in nanoseconds.
+     */
+    public LatencyHistogram getWallTime() {
+        return mWall;
+    }
+
+    /** Get the total CPU time of the runs whose CPU time is known.
+     *
+     * @return The total, in nanoseconds.
+     */
+    public long getCpuNanos() {
+        return mCpuNanos.sum();
+    }
+
+    /** Get the mean CPU time of the runs whose CPU time is known.
+     *
+     * @return The mean, in nanoseconds, or 0.
+     */
+    public double getCpuMeanNanos() {
+        long runs = mCpuRuns.sum();
+        return (runs == 0) ? 0 : (double) mCpuNanos.sum() / runs;
+    }
+
+    /** Get the number of lines printed.
+     *
+     * @return The number of lines.
+     */
+    public long getLines() {
+        return mLines.sum();
+    }
+
+    /** Get the number of bytes printed, including newlines.
+     *
+     * @return The number of bytes, as UTF-8.
+     */
+    public long getBytes() {
+        return mBytes.sum();
+    }
+
+    /** Discard everything recorded. */
+    public void reset() {
+        mWall.reset();
+        mErrors.reset();
+        mCpuNanos.reset();
+        mCpuRuns.reset();
+        mLines.reset();
+        mBytes.reset();
+    }
+
+    /** Format the statistics as a CSV row matching {@link #CSV_HEADER}.
+     *
+     * @return The row, without a line terminator.
+     */
+    public String toCsv() {
+        return String.format(Locale.ROOT, "%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d",
+                csvField(mName), getRuns(), getErrors(),
+                millis(mWall.getPercentile(50)), millis(mWall.getPercentile(90)),
+                millis(mWall.getPercentile(99)), millis(mWall.getMax()), millis(mWall.getMean()),
+                millis(getCpuNanos()), millis(getCpuMeanNanos()), getLines(), getBytes());
+    }
+
+    /** Convert nanoseconds to milliseconds.
+     *
+     * @param nanos The duration in nanoseconds.
+     * @return The duration in milliseconds.
+     */
+    public static double millis(double nanos) {
+        return nanos / 1e6;
+    }
+
+    /* Quote a CSV field if needed */
+    private static String csvField(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,176 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** An immutable copy of the process environment at one moment.
+ *
+ * A snapshot holds the system properties, the environment variables, and
+ * any other values the caller adds (such as the app's directories), as
+ * entries sorted by key, ignoring case. Capturing the environment once and
+ * reusing the snapshot avoids enumerating it on every query, and finding the
+ * entries whose keys start with a prefix is a binary search rather than a
+ * scan.
+ *
+ * Snapshots record when they were captured, so that callers can replace
+ * them once they reach a given age.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class EnvSnapshot {
+    /** Source of entries from {@link System#getProperties()}. */
+    public static final String PROPERTY = "prop";
+    /** Source of entries from {@link System#getenv()}. */
+    public static final String VARIABLE = "env";
+
+    /** One key/value pair of the environment. */
+    public static final class Entry {
+        private final String mSource;
+        private final String mKey;
+        private final String mValue;
+
+        /** Construct an entry.
+         *
+         * @param source Where the entry came from, or {@code null}.
+         * @param key The key.
+         * @param value The value.
+         */
+        public Entry(String source, String key, String value) {
+            mSource = source;
+            mKey = key;
+            mValue = value;
+        }
+
+        /** Get where the entry came from.
+         *
+         * @return {@link #PROPERTY}, {@link #VARIABLE}, or {@code null} for
+         * values added by the caller.
+         */
+        public String getSource() {
+            return mSource;
+        }
+
+        /** Get the key.
+         *
+         * @return The key.
+         */
+        public String getKey() {
+            return mKey;
+        }
+
+        /** Get the value.
+         *
+         * @return The value.
+         */
+        public String getValue() {
+            return mValue;
+        }
+    }
+
+    /* Order by key ignoring case, then by source */
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparing(Entry::getKey, String.CASE_INSENSITIVE_ORDER)
+            .thenComparing(e -> e.getSource() == null ? "" : e.getSource());
+
+    private final List<Entry> mEntries;
+    private final long mCapturedNanos;
+
+    /** Construct a snapshot from entries.
+     *
+     * @param entries The entries, in any order.
+     * @param capturedNanos When the entries were captured, from
+     * {@link System#nanoTime()}.
+     */
+    EnvSnapshot(List<Entry> entries, long capturedNanos) {
+        List<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(ORDER);
+        mEntries = Collections.unmodifiableList(sorted);
+        mCapturedNanos = capturedNanos;
+    }
+
+    /** Capture the current environment.
+     *
+     * @param extra Further values to include, such as directories, keyed by
+     * name; their source is {@code null}.
+     * @return The snapshot.
+     */
+    public static EnvSnapshot capture(Map<String, String> extra) {
+        long now = System.nanoTime();
+        List<Entry> entries = new ArrayList<>();
+        for (String key : System.getProperties().stringPropertyNames()) {
+            String value = System.getProperty(key);
+            if (value != null) {
+                entries.add(new Entry(PROPERTY, key, value));
+            }
+        }
+        for (Map.Entry<String, String> e : System.getenv().entrySet()) {
+            entries.add(new Entry(VARIABLE, e.getKey(), e.getValue()));
+        }
+        for (Map.Entry<String, String> e : extra.entrySet()) {
+            entries.add(new Entry(null, e.getKey(), e.getValue()));
+        }
+        return new EnvSnapshot(entries, now);
+    }
+
+    /** Get every entry.
+     *
+     * @return The entries, sorted by key ignoring case.
+     */
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    /** Get the entries whose keys start with a prefix, ignoring case.
+     *
+     * @param prefix The prefix; the empty string matches every entry.
+     * @return The matching entries, sorted by key; a view of this snapshot.
+     */
+    public List<Entry> withPrefix(String prefix) {
+        if (prefix.isEmpty()) {
+            return mEntries;
+        }
+        int start = lowerBound(prefix);
+        int end = start;
+        while (end < mEntries.size() && mEntries.get(end).getKey().regionMatches(true, 0, prefix, 0, prefix.length())) {
+            ++end;
+        }
+        return mEntries.subList(start, end);
+    }
+
+    /* Index of the first entry whose key is not before the given key */
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = mEntries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (String.CASE_INSENSITIVE_ORDER.compare(mEntries.get(mid).getKey(), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Get how long ago the snapshot was captured.
+     *
+     * @param unit The unit of the result.
+     * @return The snapshot's age.
+     */
+    public long getAge(TimeUnit unit) {
+        return unit.convert(System.nanoTime() - mCapturedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Return whether or not the snapshot is younger than a given age.
+     *
+     * @param maxAge The greatest age at which the snapshot is fresh.
+     * @param unit The unit of {@code maxAge}.
+     * @return True if the snapshot may still be used.
+     */
+    public boolean isFresh(long maxAge, TimeUnit unit) {
+        return System.nanoTime() - mCapturedNanos < unit.toNanos(maxAge);
+    }
+}
@@ -0,0 +1,132 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** A log-linear histogram of non-negative values, such as durations.
+ *
+ * Values below {@value #SUB_BUCKETS} have a bucket each. Above that, every
+ * power of two is split into {@value #SUB_BUCKETS} equal buckets, so a
+ * bucket's width is at most 1/{@value #SUB_BUCKETS} of its values and
+ * percentiles are accurate to within about 6%. The 960 buckets cover every
+ * {@code long}, so no range needs to be chosen in advance.
+ *
+ * Recording is a few bit operations and two atomic increments, with no
+ * locking or allocation, so any number of threads may record at once.
+ * Readers see a consistent-enough snapshot: counts read while values are
+ * being recorded may be off by those values.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    /** Number of buckets each power of two is split into. */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /* Bucket holding a value */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /* Largest value a bucket holds */
+    static long bucketMax(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    /** Record a value.
+     *
+     * @param value The value; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(bucketOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            /* Another thread raised the maximum; compare again */
+        }
+    }
+
+    /** Get the number of values recorded.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /** Get the largest value recorded.
+     *
+     * @return The maximum, or 0 if nothing has been recorded.
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /** Get the mean of the values recorded.
+     *
+     * @return The mean, or 0 if nothing has been recorded.
+     */
+    public double getMean() {
+        long count = mCount.get();
+        return (count == 0) ? 0 : (double) mSum.get() / count;
+    }
+
+    /** Get a percentile of the values recorded.
+     *
+     * The result is the upper end of the bucket holding the percentile,
+     * never more than the largest value recorded.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The value at the percentile, or 0 if nothing has been
+     * recorded.
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts[i] = mBuckets.get(i);
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketMax(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /** Discard every value recorded. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+}
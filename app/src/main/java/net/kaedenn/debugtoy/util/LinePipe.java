@@ -0,0 +1,129 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** A bounded queue of lines from one thread to another.
+ *
+ * The writer blocks while the pipe is full and the reader blocks while it is
+ * empty, so a fast writer is held to the pace of its reader and the lines in
+ * flight never exceed the capacity.
+ *
+ * Either end may be closed. Closing the write end lets the reader drain the
+ * remaining lines and then see the end of input. Closing the read end
+ * discards the queued lines and makes every later write fail, which tells
+ * the writer that nobody wants the rest of its output.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LinePipe {
+    private final CharSequence[] mLines;
+    private int mHead = 0;
+    private int mCount = 0;
+    private boolean mWriteClosed = false;
+    private volatile boolean mReadClosed = false;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+
+    /** Construct a pipe.
+     *
+     * @param capacity The number of lines that may wait for the reader.
+     */
+    public LinePipe(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mLines = new CharSequence[capacity];
+    }
+
+    /** Write a line, waiting for room.
+     *
+     * @param line The line.
+     * @return True if the line was queued, false if the read end is closed.
+     * @throws InterruptedException If interrupted while waiting for room.
+     * @throws IllegalStateException If the write end is closed.
+     */
+    public boolean write(CharSequence line) throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            if (mWriteClosed) {
+                throw new IllegalStateException("write end closed");
+            }
+            while (mCount == mLines.length && !mReadClosed) {
+                mNotFull.await();
+            }
+            if (mReadClosed) {
+                return false;
+            }
+            mLines[(mHead + mCount) % mLines.length] = line;
+            ++mCount;
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** Read a line, waiting for one to be written.
+     *
+     * @return The line, or {@code null} once the write end is closed and
+     * every line has been read.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public CharSequence read() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0 && !mWriteClosed && !mReadClosed) {
+                mNotEmpty.await();
+            }
+            if (mCount == 0) {
+                return null;
+            }
+            CharSequence line = mLines[mHead];
+            mLines[mHead] = null;
+            mHead = (mHead + 1) % mLines.length;
+            --mCount;
+            mNotFull.signal();
+            return line;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** Close the write end. The reader sees the end once the pipe drains. */
+    public void closeWrite() {
+        mLock.lock();
+        try {
+            mWriteClosed = true;
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** Close the read end, discarding the queued lines. */
+    public void closeRead() {
+        mLock.lock();
+        try {
+            mReadClosed = true;
+            Arrays.fill(mLines, null);
+            mCount = 0;
+            mNotFull.signalAll();
+            mNotEmpty.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** Return whether or not the read end has been closed.
+     *
+     * Writers may check this to stop producing output nobody will read.
+     *
+     * @return True if the read end is closed.
+     */
+    public boolean isReadClosed() {
+        return mReadClosed;
+    }
+}
@@ -0,0 +1,166 @@
+package net.kaedenn.debugtoy.util;
+
+/** Fixed-capacity ring of text lines.
+ *
+ * The ring holds at most a given number of lines and a given total number of
+ * characters. Adding a line that would exceed either limit first discards the
+ * oldest lines until it fits, so the memory held stays bounded however many
+ * lines are added. Lines are indexed oldest first.
+ *
+ * Adding and discarding lines takes constant time; nothing is copied.
+ *
+ * Each line added is also given a sequence number, which unlike its index
+ * does not change as older lines are discarded. A caller may keep a line's
+ * sequence number to find and replace the line later, if it is still held.
+ *
+ * This class is not thread-safe.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LineRing {
+    private final CharSequence[] mLines;
+    private final long mMaxChars;
+
+    /* Index of the oldest line, number of lines, and their total length */
+    private int mHead = 0;
+    private int mSize = 0;
+    private long mChars = 0;
+
+    /* Number of lines discarded to make room */
+    private long mDiscarded = 0;
+
+    /* Sequence number of the oldest line; never reset */
+    private long mFirst = 0;
+
+    /** Construct a ring.
+     *
+     * @param maxLines The maximum number of lines to hold.
+     * @param maxChars The maximum total length of the lines held. A single
+     * line longer than this is truncated.
+     */
+    public LineRing(int maxLines, long maxChars) {
+        if (maxLines <= 0) {
+            throw new IllegalArgumentException(String.format("invalid line limit %d", maxLines));
+        }
+        if (maxChars <= 0) {
+            throw new IllegalArgumentException(String.format("invalid character limit %d", maxChars));
+        }
+        mLines = new CharSequence[maxLines];
+        mMaxChars = maxChars;
+    }
+
+    /** Add a line, discarding the oldest lines as needed.
+     *
+     * @param line The line to add.
+     */
+    public void add(CharSequence line) {
+        if (line.length() > mMaxChars) {
+            line = line.subSequence(0, (int) mMaxChars);
+        }
+        while (mSize == mLines.length || mChars + line.length() > mMaxChars) {
+            removeOldest();
+        }
+        mLines[(mHead + mSize) % mLines.length] = line;
+        mChars += line.length();
+        ++mSize;
+    }
+
+    /** Replace a line, discarding the oldest lines as needed.
+     *
+     * Lines older than the one replaced are discarded until the new line
+     * fits. If it still does not fit, it is truncated.
+     *
+     * @param index The line's index, where 0 is the oldest line.
+     * @param line The new line.
+     */
+    public void set(int index, CharSequence line) {
+        checkIndex(index);
+        while (index > 0 && mChars - get(index).length() + line.length() > mMaxChars) {
+            removeOldest();
+            --index;
+        }
+        int slot = (mHead + index) % mLines.length;
+        long room = mMaxChars - (mChars - mLines[slot].length());
+        if (line.length() > room) {
+            line = line.subSequence(0, (int) room);
+        }
+        mChars += line.length() - mLines[slot].length();
+        mLines[slot] = line;
+    }
+
+    private void removeOldest() {
+        mChars -= mLines[mHead].length();
+        mLines[mHead] = null;
+        mHead = (mHead + 1) % mLines.length;
+        --mSize;
+        ++mDiscarded;
+        ++mFirst;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException(String.format("index %d, size %d", index, mSize));
+        }
+    }
+
+    /** Get a line.
+     *
+     * @param index The line's index, where 0 is the oldest line.
+     * @return The line.
+     */
+    public CharSequence get(int index) {
+        checkIndex(index);
+        return mLines[(mHead + index) % mLines.length];
+    }
+
+    /** Get the sequence number of a line.
+     *
+     * @param index The line's index, where 0 is the oldest line.
+     * @return The line's sequence number.
+     */
+    public long sequenceOf(int index) {
+        checkIndex(index);
+        return mFirst + index;
+    }
+
+    /** Find a line by its sequence number.
+     *
+     * @param sequence The sequence number from {@link #sequenceOf}.
+     * @return The line's current index, or -1 if it has been discarded.
+     */
+    public int indexOf(long sequence) {
+        long index = sequence - mFirst;
+        return (index >= 0 && index < mSize) ? (int) index : -1;
+    }
+
+    /** Get the number of lines held.
+     *
+     * @return The number of lines.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /** Get the total length of the lines held.
+     *
+     * @return The number of characters held.
+     */
+    public long chars() {
+        return mChars;
+    }
+
+    /** Get the number of lines discarded to make room for newer lines.
+     *
+     * @return The number of lines discarded.
+     */
+    public long getDiscarded() {
+        return mDiscarded;
+    }
+
+    /** Remove all lines. */
+    public void clear() {
+        while (mSize > 0) {
+            removeOldest();
+        }
+        mDiscarded = 0;
+    }
+}
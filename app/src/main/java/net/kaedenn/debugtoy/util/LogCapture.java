@@ -0,0 +1,148 @@
+package net.kaedenn.debugtoy.util;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+/** Keep the most recent log records in memory.
+ *
+ * The capture is a {@link Logf.Sink} holding a fixed number of records in a
+ * circular buffer; once full, each new record replaces the oldest. Messages
+ * longer than the configured maximum are truncated, so the memory held is
+ * bounded by the capacity times the maximum message length.
+ *
+ * Neither writing nor querying takes a lock. Writers claim a sequence number
+ * and publish an immutable {@link Record} into the slot for that number.
+ * Readers walk the most recent sequence numbers and skip any slot that has
+ * already been reused by a newer record.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogCapture implements Logf.Sink {
+
+    /** A captured log record. */
+    public static final class Record {
+        public final long mSequence;
+        public final long mTime;
+        public final int mLevel;
+        public final String mTag;
+        public final String mMessage;
+
+        Record(long sequence, long time, int level, String tag, String message) {
+            mSequence = sequence;
+            mTime = time;
+            mLevel = level;
+            mTag = tag;
+            mMessage = message;
+        }
+
+        /** Format the record the way logcat does.
+         *
+         * @return The record as a {@code "MM-dd HH:mm:ss.SSS L/tag: message"}
+         * line.
+         */
+        @Override
+        public String toString() {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ROOT);
+            return String.format(Locale.ROOT, "%s %c/%s: %s",
+                    dateFormat.format(new Date(mTime)), Logf.levelChar(mLevel), mTag, mMessage);
+        }
+    }
+
+    /* Suffix marking a truncated message */
+    private static final String ELLIPSIS = "\u2026";
+
+    private final AtomicReferenceArray<Record> mSlots;
+    private final int mMaxMessageLength;
+
+    /* Sequence number of the next record */
+    private final AtomicLong mNext = new AtomicLong();
+
+    /** Construct a capture buffer.
+     *
+     * @param capacity The number of records to keep.
+     * @param maxMessageLength Messages longer than this many characters are
+     * truncated.
+     */
+    public LogCapture(int capacity, int maxMessageLength) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("invalid capacity %d", capacity));
+        }
+        if (maxMessageLength <= 0) {
+            throw new IllegalArgumentException(String.format("invalid message length %d", maxMessageLength));
+        }
+        mSlots = new AtomicReferenceArray<>(capacity);
+        mMaxMessageLength = maxMessageLength;
+    }
+
+    /** Get the number of records the capture can hold.
+     *
+     * @return The capture's capacity.
+     */
+    public int capacity() {
+        return mSlots.length();
+    }
+
+    /** Get the number of records captured so far, including replaced ones.
+     *
+     * @return The total number of records captured.
+     */
+    public long getCount() {
+        return mNext.get();
+    }
+
+    @Override
+    public void write(long time, int level, String tag, String format, Object[] args, String message) {
+        if (message.length() > mMaxMessageLength) {
+            int end = mMaxMessageLength;
+            if (end > 0 && Character.isHighSurrogate(message.charAt(end - 1))
+                    && Character.isLowSurrogate(message.charAt(end))) {
+                /* Don't split a surrogate pair */
+                --end;
+            }
+            message = message.substring(0, end) + ELLIPSIS;
+        }
+        long sequence = mNext.getAndIncrement();
+        mSlots.set((int) (sequence % mSlots.length()), new Record(sequence, time, level, tag, message));
+    }
+
+    /** Remove all captured records. */
+    public void clear() {
+        for (int i = 0; i < mSlots.length(); ++i) {
+            mSlots.set(i, null);
+        }
+    }
+
+    /** Find captured records, oldest first.
+     *
+     * @param tag Only return records with this tag, or {@code null} for any.
+     * @param minLevel Only return records at or above this level.
+     * @param pattern Only return records whose message contains a match for
+     * this pattern, or {@code null} for any.
+     * @return The matching records.
+     */
+    public List<Record> query(String tag, int minLevel, Pattern pattern) {
+        List<Record> records = new ArrayList<>();
+        long end = mNext.get();
+        long start = Math.max(0, end - mSlots.length());
+        for (long sequence = start; sequence < end; ++sequence) {
+            Record r = mSlots.get((int) (sequence % mSlots.length()));
+            if (r == null || r.mSequence != sequence) {
+                /* Not yet published, cleared, or already replaced */
+                continue;
+            }
+            if (r.mLevel < minLevel || (tag != null && !tag.equals(r.mTag))) {
+                continue;
+            }
+            if (pattern != null && !pattern.matcher(r.mMessage).find()) {
+                continue;
+            }
+            records.add(r);
+        }
+        return records;
+    }
+}
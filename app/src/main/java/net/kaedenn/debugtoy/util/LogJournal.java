@@ -0,0 +1,435 @@
+package net.kaedenn.debugtoy.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/** Binary log journal written to memory-mapped segment files.
+ *
+ * The journal is a {@link Logf.Sink} keeping a local record of everything
+ * logged, independent of the system log's limited scrollback. Messages are not
+ * formatted when written: each record stores its timestamp, level, tag,
+ * format string, and raw arguments. Tags and format strings are written once
+ * per segment and referred to by index afterwards. Messages logged already
+ * formatted (such as structured events) are stored as literal text instead.
+ *
+ * Records are written directly into a memory-mapped segment file, so writing
+ * costs a few memory stores and survives the process dying. When a segment is
+ * full, a new one is started and the oldest segments beyond the configured
+ * count are deleted. Each segment is self-contained and may be decoded on its
+ * own.
+ *
+ * Use {@link LogJournal#decode(File, Consumer)} to turn the journal back into
+ * text. Decoding requires nothing beyond the JVM.
+ *
+ * Segment layout: a four-byte magic number followed by records. Each record
+ * starts with a type byte; a zero type byte marks the end of the segment.
+ * Integers are written as unsigned LEB128 varints and strings as a varint
+ * byte count followed by UTF-8 bytes.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogJournal implements Logf.Sink {
+    private static final int MAGIC = 0x4c474a31; /* "LGJ1" */
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".bin";
+
+    /* Record types */
+    private static final byte REC_END = 0;
+    private static final byte REC_TAG = 1;
+    private static final byte REC_FORMAT = 2;
+    private static final byte REC_MESSAGE = 3;
+    private static final byte REC_LITERAL = 4;
+
+    /* Argument types */
+    private static final byte ARG_NULL = 0;
+    private static final byte ARG_INT = 1;
+    private static final byte ARG_LONG = 2;
+    private static final byte ARG_FLOAT = 3;
+    private static final byte ARG_DOUBLE = 4;
+    private static final byte ARG_BOOLEAN = 5;
+    private static final byte ARG_CHAR = 6;
+    private static final byte ARG_STRING = 7;
+
+    /* Strings longer than this (in bytes) are truncated, at a character */
+    private static final int MAX_STRING_BYTES = 4096;
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+
+    /* Current segment */
+    private int mSegmentNumber;
+    private MappedByteBuffer mSegment;
+
+    /* Tags and format strings already defined in the current segment */
+    private final HashMap<String, Integer> mTags = new HashMap<>();
+    private final HashMap<String, Integer> mFormats = new HashMap<>();
+
+    /* Scratch space for encoding a record before copying it to the segment */
+    private final ByteBuffer mScratch;
+
+    /* Records too large to fit in an empty segment */
+    private long mDropped = 0;
+
+    /** Open a journal, starting a new segment after any existing ones.
+     *
+     * @param directory The directory to hold the segment files.
+     * @param segmentSize The size of each segment file, in bytes.
+     * @param maxSegments The number of segment files to keep.
+     * @throws IOException If the directory or first segment can't be created.
+     */
+    public LogJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException(String.format("invalid segment size %d", segmentSize));
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException(String.format("invalid segment count %d", maxSegments));
+        }
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mMaxSegments = maxSegments;
+        mScratch = ByteBuffer.allocate(segmentSize);
+        Files.createDirectories(directory.toPath());
+        List<File> segments = listSegments(directory);
+        mSegmentNumber = segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1));
+        rotate();
+    }
+
+    /** Get the number of records too large to be written.
+     *
+     * @return The number of dropped records.
+     */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    @Override
+    public synchronized void write(long time, int level, String tag, String format, Object[] args, String message) {
+        if (mSegment == null) {
+            /* Closed */
+            return;
+        }
+        if (!encodeToFit(time, level, tag, format, args)) {
+            /* Doesn't fit; retry in a fresh segment */
+            try {
+                rotate();
+            } catch (IOException e) {
+                mSegment = null;
+                return;
+            }
+            if (!encodeToFit(time, level, tag, format, args)) {
+                ++mDropped;
+                return;
+            }
+        }
+        /* Write everything but the leading type byte, then the type byte, so
+         * that a reader never sees a partially-written record (or a record
+         * without the definitions preceding it) */
+        mScratch.flip();
+        int start = mSegment.position();
+        byte type = mScratch.get();
+        mSegment.position(start + 1);
+        mSegment.put(mScratch);
+        mSegment.put(start, type);
+    }
+
+    /** Flush the current segment and stop writing. */
+    public synchronized void close() {
+        if (mSegment != null) {
+            mSegment.force();
+            mSegment = null;
+        }
+    }
+
+    /** Start a new segment and delete segments beyond the configured count.
+     *
+     * @throws IOException If the new segment can't be created.
+     */
+    private void rotate() throws IOException {
+        if (mSegment != null) {
+            mSegment.force();
+        }
+        mTags.clear();
+        mFormats.clear();
+        ++mSegmentNumber;
+        File file = new File(mDirectory, String.format(Locale.ROOT, "%s%08d%s", SEGMENT_PREFIX, mSegmentNumber, SEGMENT_SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            /* The mapping stays valid after the file is closed */
+            raf.setLength(0);
+            mSegment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        }
+        mSegment.putInt(MAGIC);
+        List<File> segments = listSegments(mDirectory);
+        for (int i = 0; i < segments.size() - mMaxSegments; ++i) {
+            //noinspection ResultOfMethodCallIgnored
+            segments.get(i).delete();
+        }
+    }
+
+    /** Encode a record if it fits in the rest of the current segment.
+     *
+     * If the record doesn't fit, then any definitions made for it are
+     * forgotten, as they were never written.
+     *
+     * @return True if the scratch buffer holds a record that fits, false
+     * otherwise.
+     */
+    private boolean encodeToFit(long time, int level, String tag, String format, Object[] args) {
+        int tags = mTags.size();
+        int formats = mFormats.size();
+        if (encode(time, level, tag, format, args) && mScratch.position() <= mSegment.remaining()) {
+            return true;
+        }
+        undefine(mTags, tags);
+        undefine(mFormats, formats);
+        return false;
+    }
+
+    /** Remove definitions added after the map had {@code size} entries. */
+    private static void undefine(Map<String, Integer> defined, int size) {
+        defined.values().removeIf(index -> index >= size);
+    }
+
+    /** Encode a record, and any definitions it needs, into the scratch buffer.
+     *
+     * @return True on success, false if the record doesn't fit in a segment.
+     */
+    private boolean encode(long time, int level, String tag, String format, Object[] args) {
+        mScratch.clear();
+        try {
+            int tagIndex = define(mTags, REC_TAG, tag);
+            if (args == null) {
+                /* Already formatted; don't fill the format table with it */
+                mScratch.put(REC_LITERAL);
+                mScratch.putLong(time);
+                mScratch.put((byte) level);
+                putVarint(mScratch, tagIndex);
+                putString(mScratch, format);
+                return true;
+            }
+            int formatIndex = define(mFormats, REC_FORMAT, format);
+            mScratch.put(REC_MESSAGE);
+            mScratch.putLong(time);
+            mScratch.put((byte) level);
+            putVarint(mScratch, tagIndex);
+            putVarint(mScratch, formatIndex);
+            putVarint(mScratch, args.length);
+            for (int i = 0; i < args.length; ++i) {
+                putArg(mScratch, args[i]);
+            }
+            return true;
+        } catch (BufferOverflowException e) {
+            return false;
+        }
+    }
+
+    /** Write a definition for a string if it isn't already defined.
+     *
+     * @return The string's index.
+     */
+    private int define(Map<String, Integer> defined, byte type, String s) {
+        Integer index = defined.get(s);
+        if (index == null) {
+            index = defined.size();
+            defined.put(s, index);
+            mScratch.put(type);
+            putVarint(mScratch, index);
+            putString(mScratch, s);
+        }
+        return index;
+    }
+
+    private static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7f) != 0) {
+            buf.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+        byte[] bytes = (s == null ? "null" : s).getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xc0) == 0x80) {
+            /* Don't split a character's encoding */
+            --length;
+        }
+        putVarint(buf, length);
+        buf.put(bytes, 0, length);
+    }
+
+    private static void putArg(ByteBuffer buf, Object arg) {
+        if (arg == null) {
+            buf.put(ARG_NULL);
+        } else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+            buf.put(ARG_INT).putInt(((Number) arg).intValue());
+        } else if (arg instanceof Long) {
+            buf.put(ARG_LONG).putLong((Long) arg);
+        } else if (arg instanceof Float) {
+            buf.put(ARG_FLOAT).putFloat((Float) arg);
+        } else if (arg instanceof Double) {
+            buf.put(ARG_DOUBLE).putDouble((Double) arg);
+        } else if (arg instanceof Boolean) {
+            buf.put(ARG_BOOLEAN).put((byte) ((Boolean) arg ? 1 : 0));
+        } else if (arg instanceof Character) {
+            buf.put(ARG_CHAR).putChar((Character) arg);
+        } else {
+            buf.put(ARG_STRING);
+            putString(buf, arg.toString());
+        }
+    }
+
+    /* Start of decoding */
+
+    /** List the segment files in a directory, oldest first.
+     *
+     * @param directory The journal directory.
+     * @return The segment files.
+     */
+    public static List<File> listSegments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        List<File> segments = new ArrayList<>();
+        if (files != null) {
+            segments.addAll(Arrays.asList(files));
+        }
+        segments.sort((a, b) -> Integer.compare(segmentNumber(a), segmentNumber(b)));
+        return segments;
+    }
+
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        String number = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+        Integer value = Str.tryParseInteger(number);
+        return value == null ? -1 : value;
+    }
+
+    /** Decode every segment in a journal directory into text, oldest first.
+     *
+     * Each record becomes a line of the form
+     * {@code "MM-dd HH:mm:ss.SSS L/tag: message"}, similar to logcat.
+     *
+     * @param directory The journal directory.
+     * @param out Receives one line per record.
+     * @throws IOException If a segment can't be read.
+     */
+    public static void decode(File directory, Consumer<String> out) throws IOException {
+        for (File segment : listSegments(directory)) {
+            decodeSegment(segment, out);
+        }
+    }
+
+    /** Decode a single segment file into text.
+     *
+     * Decoding stops quietly at the first malformed record.
+     *
+     * @param segment The segment file.
+     * @param out Receives one line per record.
+     * @throws IOException If the segment can't be read.
+     */
+    public static void decodeSegment(File segment, Consumer<String> out) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(segment.toPath()));
+        if (buf.remaining() < Integer.BYTES || buf.getInt() != MAGIC) {
+            return;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ROOT);
+        HashMap<Integer, String> tags = new HashMap<>();
+        HashMap<Integer, String> formats = new HashMap<>();
+        try {
+            while (buf.hasRemaining()) {
+                byte type = buf.get();
+                if (type == REC_END) {
+                    break;
+                } else if (type == REC_TAG) {
+                    int index = getVarint(buf);
+                    tags.put(index, getString(buf));
+                } else if (type == REC_FORMAT) {
+                    int index = getVarint(buf);
+                    formats.put(index, getString(buf));
+                } else if (type == REC_MESSAGE) {
+                    long time = buf.getLong();
+                    int level = buf.get();
+                    String tag = tags.get(getVarint(buf));
+                    String format = formats.get(getVarint(buf));
+                    Object[] args = new Object[getVarint(buf)];
+                    for (int i = 0; i < args.length; ++i) {
+                        args[i] = getArg(buf);
+                    }
+                    out.accept(String.format(Locale.ROOT, "%s %c/%s: %s",
+                            dateFormat.format(new Date(time)), Logf.levelChar(level), tag, formatMessage(format, args)));
+                } else if (type == REC_LITERAL) {
+                    long time = buf.getLong();
+                    int level = buf.get();
+                    String tag = tags.get(getVarint(buf));
+                    String message = getString(buf);
+                    out.accept(String.format(Locale.ROOT, "%s %c/%s: %s",
+                            dateFormat.format(new Date(time)), Logf.levelChar(level), tag, message));
+                } else {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            /* Truncated or corrupt segment; keep what was decoded */
+        }
+    }
+
+    private static String formatMessage(String format, Object[] args) {
+        if (format == null) {
+            return "<unknown format>";
+        }
+        try {
+            return String.format(format, args);
+        } catch (IllegalFormatException e) {
+            return format + " " + Arrays.toString(args);
+        }
+    }
+
+    private static int getVarint(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buf.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = getVarint(buf);
+        String s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+    private static Object getArg(ByteBuffer buf) {
+        byte type = buf.get();
+        switch (type) {
+            case ARG_NULL: return null;
+            case ARG_INT: return buf.getInt();
+            case ARG_LONG: return buf.getLong();
+            case ARG_FLOAT: return buf.getFloat();
+            case ARG_DOUBLE: return buf.getDouble();
+            case ARG_BOOLEAN: return buf.get() != 0;
+            case ARG_CHAR: return buf.getChar();
+            case ARG_STRING: return getString(buf);
+            default: throw new IllegalStateException(String.format("unknown argument type %d", type));
+        }
+    }
+}
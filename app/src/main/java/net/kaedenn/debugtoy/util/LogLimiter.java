@@ -0,0 +1,175 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/** Rate limit or sample the messages logged by a call site.
+ *
+ * A limiter is meant to be stored in a {@code static final} field next to the
+ * code it limits, so that each call site has its own limiter:
+ *
+ * <pre>{@code
+ * private static final LogLimiter FRAME_LIMIT = LogLimiter.perSecond(2);
+ * ...
+ * log.d(FRAME_LIMIT, "frame %d took %d ms", frame, elapsed);
+ * }</pre>
+ *
+ * Rate limits are enforced with a token bucket holding up to {@code n}
+ * tokens and refilling at {@code n} tokens per second. The bucket is a single
+ * atomic timestamp (the time at which the bucket will next be full), so
+ * acquiring a token is one compare-and-set and never blocks.
+ *
+ * Messages rejected by the limiter are counted. The {@link Logf} methods
+ * accepting a limiter, on handles and the {@code *c} methods alike, report
+ * that count in a summary line the next time the limiter lets a message
+ * through. So that a call site which falls silent still reports what it
+ * suppressed, every limiter that has been used is also flushed about once a
+ * second (see {@link Logf#flushLimiters()}), with the tag and level of the
+ * last message offered to it. Such limiters are kept for the life of the
+ * process, which is why each should be a {@code static final} field.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogLimiter {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongSupplier mClock;
+
+    /* Rate limit: nanoseconds per token, and how far ahead the bucket may be
+     * drawn down (that is, the burst size less one token) */
+    private final long mInterval;
+    private final long mTolerance;
+    /* Theoretical arrival time: when the bucket will next be full */
+    private final AtomicLong mTat = new AtomicLong(Long.MIN_VALUE);
+
+    /* Sampling: accept one message in every mSampleRate */
+    private final int mSampleRate;
+    private final AtomicLong mCount = new AtomicLong();
+
+    /* Messages rejected since the last call to takeSuppressed() */
+    private final AtomicLong mSuppressed = new AtomicLong();
+
+    /* Tag and level of the last message offered, for the periodic summary */
+    private volatile String mTag = null;
+    private volatile int mLevel = 0;
+    private final AtomicBoolean mBound = new AtomicBoolean(false);
+
+    LogLimiter(int perSecond, int sampleRate, LongSupplier clock) {
+        mClock = clock;
+        mSampleRate = sampleRate;
+        if (perSecond > 0) {
+            mInterval = NANOS_PER_SECOND / perSecond;
+            mTolerance = mInterval * (perSecond - 1);
+        } else {
+            mInterval = 0;
+            mTolerance = 0;
+        }
+    }
+
+    /** Create a limiter allowing at most {@code n} messages per second.
+     *
+     * Up to {@code n} messages may be logged in a burst.
+     *
+     * @param n The number of messages allowed per second.
+     * @return The new limiter.
+     */
+    public static LogLimiter perSecond(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException(String.format("invalid rate %d; must be > 0", n));
+        }
+        return new LogLimiter(n, 0, System::nanoTime);
+    }
+
+    /** Create a limiter allowing one message in every {@code k}.
+     *
+     * The first message is allowed, followed by every {@code k}th message
+     * after it.
+     *
+     * @param k The sampling ratio.
+     * @return The new limiter.
+     */
+    public static LogLimiter sample(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException(String.format("invalid sample rate %d; must be > 0", k));
+        }
+        return new LogLimiter(0, k, System::nanoTime);
+    }
+
+    /** Decide whether or not the next message may be logged.
+     *
+     * @return True if the message may be logged, false if it should be
+     * suppressed.
+     */
+    public boolean tryAcquire() {
+        boolean allowed = (mSampleRate > 0) ? trySample() : tryTake();
+        if (!allowed) {
+            mSuppressed.incrementAndGet();
+        }
+        return allowed;
+    }
+
+    private boolean trySample() {
+        return mCount.getAndIncrement() % mSampleRate == 0;
+    }
+
+    private boolean tryTake() {
+        long now = mClock.getAsLong();
+        while (true) {
+            long tat = mTat.get();
+            long start = Math.max(tat, now);
+            if (start - now > mTolerance) {
+                /* Bucket is empty */
+                return false;
+            }
+            if (mTat.compareAndSet(tat, start + mInterval)) {
+                return true;
+            }
+        }
+    }
+
+    /** Get the number of messages suppressed since the last summary.
+     *
+     * @return The number of suppressed messages.
+     */
+    public long getSuppressed() {
+        return mSuppressed.get();
+    }
+
+    /** Get and reset the number of messages suppressed.
+     *
+     * @return The number of messages suppressed since the last call.
+     */
+    public long takeSuppressed() {
+        return mSuppressed.getAndSet(0);
+    }
+
+    /** Record the tag and level of a message about to be offered.
+     *
+     * @param tag The message's tag.
+     * @param level The message's level.
+     * @return True the first time the limiter is bound, when it should be
+     * registered for flushing.
+     */
+    boolean bind(String tag, int level) {
+        mTag = tag;
+        mLevel = level;
+        return !mBound.get() && mBound.compareAndSet(false, true);
+    }
+
+    /** Get the tag of the last message offered.
+     *
+     * @return The tag, or {@code null} if the limiter has not been used.
+     */
+    String getTag() {
+        return mTag;
+    }
+
+    /** Get the level of the last message offered.
+     *
+     * @return The level.
+     */
+    int getLevel() {
+        return mLevel;
+    }
+}
@@ -0,0 +1,244 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** Preallocated multi-producer ring buffer of log records.
+ *
+ * Each record consists of a timestamp, a level, a tag index, a format string,
+ * and the format arguments. Records are stored field-by-field in parallel
+ * arrays allocated up-front, so adding a record never allocates.
+ *
+ * The ring is a bounded lock-free queue: each slot carries a sequence number
+ * which tells producers and consumers whether the slot is free or full for
+ * the current lap around the ring. Any number of threads may add and remove
+ * records concurrently.
+ *
+ * What happens when the ring is full is decided by the {@link Overflow}
+ * policy given at construction time.
+ *
+ * Note that the format arguments are stored by reference; mutable arguments
+ * changed after being logged will be formatted with their new values.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class LogRing {
+
+    /** Behavior when adding a record to a full ring. */
+    public enum Overflow {
+        /** Discard the new record. */
+        DROP,
+        /** Wait for the consumer to make room. */
+        BLOCK,
+        /** Discard the oldest record to make room for the new record. */
+        OVERWRITE
+    }
+
+    /** Receives records removed from the ring. */
+    public interface Consumer {
+        void accept(long time, int level, int tag, String format, Object[] args);
+    }
+
+    /* Time to wait between attempts when blocking on a full ring */
+    private static final long BLOCK_PARK_NANOS = 50_000L;
+
+    private final int mMask;
+    private final Overflow mOverflow;
+
+    /* Slot sequence numbers; see offer() and poll() */
+    private final AtomicLongArray mSequence;
+
+    /* Record fields, one entry per slot */
+    private final long[] mTimes;
+    private final int[] mLevels;
+    private final int[] mTags;
+    private final String[] mFormats;
+    private final Object[][] mArgs;
+
+    /* Next position to write and next position to read */
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+
+    /* Counters for records lost to the overflow policy */
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mOverwritten = new AtomicLong();
+
+    /** Construct a ring.
+     *
+     * @param capacity The minimum number of records to hold. This is rounded
+     * up to the next power of two.
+     * @param overflow The policy for adding records to a full ring.
+     */
+    public LogRing(int capacity, Overflow overflow) {
+        if (capacity < 2 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("invalid capacity %d", capacity));
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        mMask = size - 1;
+        mOverflow = overflow;
+        mSequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            mSequence.set(i, i);
+        }
+        mTimes = new long[size];
+        mLevels = new int[size];
+        mTags = new int[size];
+        mFormats = new String[size];
+        mArgs = new Object[size][];
+    }
+
+    /** Get the number of records the ring can hold.
+     *
+     * @return The ring's capacity.
+     */
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    /** Get the ring's overflow policy.
+     *
+     * @return The overflow policy.
+     */
+    public Overflow getOverflow() {
+        return mOverflow;
+    }
+
+    /** Get the number of records discarded because the ring was full.
+     *
+     * This includes records discarded by the {@code DROP} policy and records
+     * abandoned by an interrupted {@code BLOCK} producer.
+     *
+     * @return The number of new records dropped.
+     */
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    /** Get the number of old records discarded by the {@code OVERWRITE} policy.
+     *
+     * @return The number of old records overwritten.
+     */
+    public long getOverwritten() {
+        return mOverwritten.get();
+    }
+
+    /** Return whether or not the ring has no records available.
+     *
+     * @return True if the ring is empty, false otherwise.
+     */
+    public boolean isEmpty() {
+        long head = mHead.get();
+        return mSequence.get((int) head & mMask) != head + 1;
+    }
+
+    /** Add a record, applying the overflow policy if the ring is full.
+     *
+     * @param time The record's timestamp.
+     * @param level The record's level.
+     * @param tag The record's tag index.
+     * @param format The record's format string.
+     * @param args The record's format arguments.
+     * @return True if the record was added, false if it was dropped.
+     */
+    public boolean offer(long time, int level, int tag, String format, Object[] args) {
+        while (!tryOffer(time, level, tag, format, args)) {
+            switch (mOverflow) {
+                case DROP:
+                    mDropped.incrementAndGet();
+                    return false;
+                case BLOCK:
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    if (Thread.currentThread().isInterrupted()) {
+                        mDropped.incrementAndGet();
+                        return false;
+                    }
+                    break;
+                case OVERWRITE:
+                    if (poll(null)) {
+                        mOverwritten.incrementAndGet();
+                    }
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /** Add a record if there is room.
+     *
+     * @return True if the record was added, false if the ring was full.
+     */
+    private boolean tryOffer(long time, int level, int tag, String format, Object[] args) {
+        while (true) {
+            long pos = mTail.get();
+            int slot = (int) pos & mMask;
+            long diff = mSequence.get(slot) - pos;
+            if (diff == 0) {
+                /* Slot is free for this lap; try to claim it */
+                if (mTail.compareAndSet(pos, pos + 1)) {
+                    mTimes[slot] = time;
+                    mLevels[slot] = level;
+                    mTags[slot] = tag;
+                    mFormats[slot] = format;
+                    mArgs[slot] = args;
+                    /* Publish the record */
+                    mSequence.set(slot, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                /* Slot still holds the record from the previous lap */
+                return false;
+            }
+            /* Another producer claimed the slot; try again */
+        }
+    }
+
+    /** Remove the oldest record, if any.
+     *
+     * @param consumer Receives the record. May be {@code null} to discard it.
+     * @return True if a record was removed, false if the ring was empty.
+     */
+    public boolean poll(Consumer consumer) {
+        while (true) {
+            long pos = mHead.get();
+            int slot = (int) pos & mMask;
+            long diff = mSequence.get(slot) - (pos + 1);
+            if (diff == 0) {
+                /* Slot holds a published record; try to claim it */
+                if (mHead.compareAndSet(pos, pos + 1)) {
+                    long time = mTimes[slot];
+                    int level = mLevels[slot];
+                    int tag = mTags[slot];
+                    String format = mFormats[slot];
+                    Object[] args = mArgs[slot];
+                    /* Don't hold on to the record's objects */
+                    mFormats[slot] = null;
+                    mArgs[slot] = null;
+                    /* Release the slot for the next lap */
+                    mSequence.set(slot, pos + mMask + 1);
+                    if (consumer != null) {
+                        consumer.accept(time, level, tag, format, args);
+                    }
+                    return true;
+                }
+            } else if (diff < 0) {
+                /* Nothing published yet */
+                return false;
+            }
+            /* Another consumer claimed the slot; try again */
+        }
+    }
+
+    /** Remove up to {@code max} records, oldest first.
+     *
+     * @param consumer Receives the records.
+     * @param max The maximum number of records to remove.
+     * @return The number of records removed.
+     */
+    public int drain(Consumer consumer, int max) {
+        int count = 0;
+        while (count < max && poll(consumer)) {
+            ++count;
+        }
+        return count;
+    }
+}
@@ -2,8 +2,18 @@ package net.kaedenn.debugtoy.util;
 
 import android.util.Log;
 
-import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /** Formatted logging utility class.
  *
@@ -13,20 +23,55 @@ import java.util.HashMap;
  * name, but also provide {@code String#format(...)} arguments for logging a
  * formatted string.
  *
+ * The static methods ending in {@code c} ({@code vc}, {@code dc}, etc) deduce
+ * the logging tag from the calling class. Deducing the caller requires a stack
+ * walk on every call; only resolving the caller's class to its configuration
+ * is cached.
  *
+ * Code that logs frequently should instead obtain a {@link Logger} handle via
+ * {@link Logf#forClass(Class)} once and log through that handle. Handles have
+ * their tag resolved up-front and never walk the stack.
+ *
+ * For key/value data, {@link Logf#event(String)} returns a structured event
+ * builder that renders directly into a reusable per-thread buffer, avoiding
+ * varargs arrays, boxing, and {@code String#format}.
+ *
+ * Handles and the {@code *c} methods also accept a {@link LogLimiter} to
+ * rate limit or sample the messages logged by a single call site, such as
+ * per-frame animation code.
+ *
+ * Messages are filtered by level before any formatting takes place. A message
+ * is logged only if its level is at least the global minimum level (see
+ * {@link Logf#setMinLevel(int)}) and, for messages logged on behalf of a class,
+ * at least that class's level (see {@link Logf#setLevel(Class, int)}). The
+ * {@code int}, {@code long}, and {@code float} overloads let hot code log a
+ * single argument without allocating anything when the message is filtered.
+ *
+ * By default, messages are formatted and written to the system log on the
+ * calling thread. {@link Logf#startAsync(int, LogRing.Overflow)} switches to
+ * asynchronous mode, where callers only add a record to a {@link LogRing} and
+ * a background thread formats and writes the records.
+ *
+ * Besides the system log, messages are written to any secondary sinks added
+ * via {@link Logf#addSink(Sink)}, such as a {@link LogJournal}.
+ *
+ * Configuration may be changed from any thread. Readers never lock: the class
+ * configuration map is an immutable snapshot replaced on every change, and
+ * each class's level is a volatile field computed when the configuration
+ * changes rather than when a message is logged.
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
 public class Logf {
     /* Start of Logf singleton pattern */
 
-    private static WeakReference<Logf> log = new WeakReference<>(new Logf());
+    private static final Logf log = new Logf();
 
     /** Get the {@code Logf} singleton.
      *
      * @return The {@code Logf} singleton.
      */
     public static Logf getInstance() {
-        return log.get();
+        return log;
     }
 
     private Logf() {
@@ -34,43 +79,311 @@ public class Logf {
 
     /* Start of Logf configuration area */
 
+    /** Level used to disable logging entirely. */
+    public static final int LEVEL_OFF = Log.ASSERT + 1;
+
+    /* Messages below this level are discarded, regardless of class */
+    private static volatile int sMinLevel = Log.VERBOSE;
+
+    /* If true, also consult Log.isLoggable before logging */
+    private static volatile boolean sHonorLoggable = false;
+
+    /* Marker for a class without a level of its own */
+    private static final int LEVEL_UNSET = Integer.MIN_VALUE;
+
+    /* Single-letter level names, as used by logcat, starting at VERBOSE */
+    private static final String LEVEL_CHARS = "VDIWEA";
+
+    /** Get the single-letter name of a level, as used by logcat.
+     *
+     * @param level One of the {@code Log} level constants.
+     * @return The level's letter, or {@code '?'} for an unknown level.
+     */
+    public static char levelChar(int level) {
+        int index = level - Log.VERBOSE;
+        return (index >= 0 && index < LEVEL_CHARS.length()) ? LEVEL_CHARS.charAt(index) : '?';
+    }
+
+    /** Parse a level name.
+     *
+     * Accepts either the logcat letter or the full name, in any case; for
+     * example {@code "w"} or {@code "WARN"}.
+     *
+     * @param name The level name.
+     * @return The {@code Log} level constant, or {@code null} if the name is
+     * not a level.
+     */
+    public static Integer parseLevel(String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        int index = LEVEL_CHARS.indexOf(Character.toUpperCase(name.charAt(0)));
+        if (index < 0) {
+            return null;
+        }
+        if (name.length() > 1) {
+            final String[] names = {"VERBOSE", "DEBUG", "INFO", "WARN", "ERROR", "ASSERT"};
+            if (!names[index].equalsIgnoreCase(name)) {
+                return null;
+            }
+        }
+        return Log.VERBOSE + index;
+    }
+
     /** LogConfig class definition.
      *
      * This class wraps all of a class's logging configuration.
+     *
+     * {@code mLevel} is the effective level: the class's own level if it has
+     * one, otherwise the level of the longest matching package rule. It is
+     * written only while holding the {@code Logf} lock.
      */
     @SuppressWarnings("WeakerAccess")
     private static class LogConfig {
-        public String mClass;
-        public String mTag;
-        public boolean mEnable;
+        public final String mClass;
+        public volatile String mTag;
+        public volatile int mLevel;
+        public int mOwnLevel = LEVEL_UNSET;
+        /* True for placeholders standing in for unregistered classes */
+        public final boolean mUnresolved;
         LogConfig(String cls, String tag) {
-            this(cls, tag, true);
+            this(cls, tag, Log.VERBOSE, false);
         }
-        LogConfig(String cls, String tag, boolean enable) {
+        LogConfig(String cls, String tag, int level, boolean unresolved) {
             mClass = cls;
             mTag = tag;
-            mEnable = enable;
+            mLevel = level;
+            mUnresolved = unresolved;
         }
     }
 
-    private HashMap<String, LogConfig> mConfig = new HashMap<>();
+    /* Immutable snapshot of the class configuration; replaced on change */
+    private volatile Map<String, LogConfig> mConfig = Collections.emptyMap();
 
-    /** Enable logging for the specified class.
+    /* Package (or class name) prefix rules; guarded by this */
+    private final TreeMap<String, Integer> mPrefixLevels = new TreeMap<>();
+
+    /* Maximum number of entries in each of the caches below; entries past
+     * this are not cached, only recomputed */
+    private static final int MAX_RESOLVED = 512;
+
+    /* Resolution cache: class name to the configuration it resolved to,
+     * including placeholders for classes that resolved to nothing */
+    private final ConcurrentHashMap<String, LogConfig> mResolved = new ConcurrentHashMap<>();
+
+    /* Unregistered classes already reported; bounded by MAX_RESOLVED */
+    private final Set<String> mReported = ConcurrentHashMap.newKeySet();
+
+    /* Incremented whenever the caches are invalidated */
+    private volatile int mGeneration = 0;
+
+    /** Set the global minimum level.
+     *
+     * Messages below this level are discarded before being formatted.
+     *
+     * @param level One of the {@code Log} level constants, or
+     * {@link Logf#LEVEL_OFF} to disable logging entirely.
+     */
+    public static void setMinLevel(int level) {
+        sMinLevel = level;
+    }
+
+    /** Get the global minimum level.
+     *
+     * @return The global minimum level.
+     */
+    public static int getMinLevel() {
+        return sMinLevel;
+    }
+
+    /** Control whether or not {@code Log.isLoggable} is consulted.
+     *
+     * When enabled, messages are also filtered by the system's per-tag level
+     * (the {@code log.tag.<TAG>} system property). This is disabled by default
+     * because the system default level is {@code INFO}, which would hide all
+     * verbose and debug messages.
+     *
+     * @param honor True to consult {@code Log.isLoggable}, false otherwise.
+     */
+    public static void setHonorLoggable(boolean honor) {
+        sHonorLoggable = honor;
+    }
+
+    /** Return whether or not a message would be logged for the given tag.
+     *
+     * This applies the global minimum level and, if enabled, the system's
+     * per-tag level. Per-class levels are not considered.
+     *
+     * @param tag The logging tag.
+     * @param level The message's level.
+     * @return True if the message would be logged, false otherwise.
+     */
+    public static boolean isLoggable(String tag, int level) {
+        return level >= sMinLevel && (!sHonorLoggable || Log.isLoggable(tag, level));
+    }
+
+    /** Set the minimum level for the specified class.
      *
      * @param cls The class to configure.
+     * @param level One of the {@code Log} level constants, or
+     * {@link Logf#LEVEL_OFF} to disable logging for the class.
      * @return True if the class configuration was updated, false if the class
      * was not found in the configuration map.
      */
-    public boolean enable(Class<?> cls) {
-        LogConfig cfg = mConfig.remove(cls.getName());
+    public synchronized boolean setLevel(Class<?> cls, int level) {
+        LogConfig cfg = mConfig.get(cls.getName());
         if (cfg != null) {
-            cfg.mEnable = true;
-            mConfig.put(cls.getName(), cfg);
+            cfg.mOwnLevel = level;
+            cfg.mLevel = level;
+            invalidate();
             return true;
         }
         return false;
     }
 
+    /** Set the minimum level for every class under a prefix.
+     *
+     * The prefix is usually a package name, such as
+     * {@code "net.kaedenn.debugtoy"}, and applies to every class in that
+     * package and its sub-packages. A full class name applies to the class
+     * and its nested classes. When several prefixes match a class, the
+     * longest wins. Levels set for a specific class take precedence over
+     * prefix rules.
+     *
+     * Effective levels are computed here, so prefix rules cost nothing when
+     * logging.
+     *
+     * @param prefix The package or class name prefix.
+     * @param level One of the {@code Log} level constants, or
+     * {@link Logf#LEVEL_OFF} to disable logging under the prefix.
+     */
+    public synchronized void setLevel(String prefix, int level) {
+        mPrefixLevels.put(prefix, level);
+        for (LogConfig cfg : mConfig.values()) {
+            cfg.mLevel = getEffectiveLevel(cfg);
+        }
+        invalidate();
+    }
+
+    /** Remove a prefix rule previously set via {@link Logf#setLevel(String, int)}.
+     *
+     * @param prefix The package or class name prefix.
+     */
+    public synchronized void clearLevel(String prefix) {
+        if (mPrefixLevels.remove(prefix) != null) {
+            for (LogConfig cfg : mConfig.values()) {
+                cfg.mLevel = getEffectiveLevel(cfg);
+            }
+            invalidate();
+        }
+    }
+
+    /** Enable logging for every class under a prefix.
+     *
+     * @param prefix The package or class name prefix.
+     * @see Logf#setLevel(String, int)
+     */
+    public void enable(String prefix) {
+        setLevel(prefix, Log.VERBOSE);
+    }
+
+    /** Disable logging for every class under a prefix.
+     *
+     * @param prefix The package or class name prefix.
+     * @see Logf#setLevel(String, int)
+     */
+    public void disable(String prefix) {
+        setLevel(prefix, LEVEL_OFF);
+    }
+
+    /** Compute a class's effective level.
+     *
+     * Must be called while holding the lock.
+     *
+     * @param cfg The class's configuration.
+     * @return The class's own level, or the level of the longest prefix rule
+     * matching the class, or {@code VERBOSE} if neither exist.
+     */
+    private int getEffectiveLevel(LogConfig cfg) {
+        if (cfg.mOwnLevel != LEVEL_UNSET) {
+            return cfg.mOwnLevel;
+        }
+        String name = cfg.mClass;
+        /* Prefixes of a name sort before it, and longer prefixes sort after
+         * shorter ones; the first match walking backwards is the longest */
+        for (Map.Entry<String, Integer> rule : mPrefixLevels.headMap(name, true).descendingMap().entrySet()) {
+            String prefix = rule.getKey();
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            if (prefix.isEmpty() || name.length() == prefix.length()) {
+                return rule.getValue();
+            }
+            char next = name.charAt(prefix.length());
+            if (next == '.' || next == '$') {
+                return rule.getValue();
+            }
+        }
+        return Log.VERBOSE;
+    }
+
+    /** Add a configuration to the snapshot.
+     *
+     * Must be called while holding the lock.
+     *
+     * @param cfg The new configuration.
+     */
+    private void putConfig(LogConfig cfg) {
+        cfg.mLevel = getEffectiveLevel(cfg);
+        HashMap<String, LogConfig> config = new HashMap<>(mConfig);
+        config.put(cfg.mClass, cfg);
+        mConfig = Collections.unmodifiableMap(config);
+        invalidate();
+    }
+
+    /** Discard cached resolutions after a configuration change.
+     *
+     * Must be called while holding the lock. Entries computed before the
+     * change but inserted afterwards are caught by the generation check in
+     * {@code cache}.
+     */
+    private void invalidate() {
+        ++mGeneration;
+        mResolved.clear();
+    }
+
+    /** Insert a resolution into one of the caches.
+     *
+     * Nothing is inserted if the cache is full, or if the configuration
+     * changed since the resolution started.
+     *
+     * @param cache The cache to insert into.
+     * @param key The cache key.
+     * @param cfg The resolved configuration.
+     * @param generation The value of {@code mGeneration} before resolving.
+     */
+    private void cache(Map<String, LogConfig> cache, String key, LogConfig cfg, int generation) {
+        if (cache.size() < MAX_RESOLVED) {
+            cache.putIfAbsent(key, cfg);
+            if (generation != mGeneration) {
+                cache.remove(key, cfg);
+            }
+        }
+    }
+
+    /** Enable logging for the specified class.
+     *
+     * All levels are enabled. Use {@link Logf#setLevel(Class, int)} to enable
+     * only some levels.
+     *
+     * @param cls The class to configure.
+     * @return True if the class configuration was updated, false if the class
+     * was not found in the configuration map.
+     */
+    public boolean enable(Class<?> cls) {
+        return setLevel(cls, Log.VERBOSE);
+    }
+
     /** Disable logging for the specified class.
      *
      * @param cls The class to configure.
@@ -78,13 +391,7 @@ public class Logf {
      * was not found in the configuration map.
      */
     public boolean disable(Class<?> cls) {
-        LogConfig cfg = mConfig.remove(cls.getName());
-        if (cfg != null) {
-            cfg.mEnable = false;
-            mConfig.put(cls.getName(), cfg);
-            return true;
-        }
-        return false;
+        return setLevel(cls, LEVEL_OFF);
     }
 
     /** Register configuration for a class.
@@ -95,8 +402,32 @@ public class Logf {
      * @param cls The class to register.
      * @param tag The logging tag to use for the given class.
      */
-    public void add(Class<?> cls, String tag) {
-        mConfig.put(cls.getName(), new LogConfig(cls.getName(), tag));
+    public synchronized void add(Class<?> cls, String tag) {
+        LogConfig cfg = mConfig.get(cls.getName());
+        if (cfg != null) {
+            /* Update in-place so that existing handles see the new tag */
+            cfg.mTag = tag;
+        } else {
+            putConfig(new LogConfig(cls.getName(), tag));
+        }
+    }
+
+    /** Obtain a logging handle for the specified class.
+     *
+     * The handle's tag is resolved once, here, using the same rules as the
+     * {@code *c} methods: nested classes use their enclosing class's tag. If
+     * the class is not registered, then a configuration is created for it
+     * using the class name as the tag.
+     *
+     * Handles share the class's configuration, so later calls to
+     * {@link Logf#enable(Class)}, {@link Logf#disable(Class)}, and
+     * {@link Logf#add(Class, String)} apply to existing handles.
+     *
+     * @param cls The class to log on behalf of.
+     * @return A logging handle for that class.
+     */
+    public static Logger forClass(Class<?> cls) {
+        return new Logger(getInstance().getConfig(cls.getName(), true));
     }
 
     /** Deduce the calling stack frame.
@@ -123,65 +454,873 @@ public class Logf {
         }
     }
 
-    private String getTag(String cls) {
-        LogConfig cfg = mConfig.get(cls);
-        if (cfg != null) {
-            return cfg.mTag;
+    /** Look up the configuration for a class.
+     *
+     * Nested classes (including lambdas) without their own configuration use
+     * the configuration of their nearest enclosing class that has one.
+     * Classes without any such configuration resolve to a placeholder using
+     * the outermost class name as the tag; each is reported once.
+     *
+     * Results are cached by class name until the configuration changes. At
+     * most {@link #MAX_RESOLVED} classes are cached; later classes are
+     * resolved again on every call, which costs a few map lookups.
+     *
+     * @param cls The class name.
+     * @param create If true, register a configuration for classes that don't
+     * have one, instead of returning a placeholder.
+     * @return The class's configuration.
+     */
+    private LogConfig getConfig(String cls, boolean create) {
+        LogConfig cfg = mResolved.get(cls);
+        if (cfg == null) {
+            int generation = mGeneration;
+            cfg = resolve(cls);
+            cache(mResolved, cls, cfg, generation);
         }
-        /* Failed to get caller's tag... perhaps it's a nested class? */
-        if (cls.contains("$")) {
-            return getTag(cls.substring(0, cls.indexOf("$")));
+        if (create && cfg.mUnresolved) {
+            synchronized (this) {
+                LogConfig registered = mConfig.get(cfg.mClass);
+                if (registered == null) {
+                    registered = new LogConfig(cfg.mClass, cfg.mClass);
+                    putConfig(registered);
+                }
+                cfg = registered;
+            }
         }
-        Logf.e("Logf", "Unable to find tag for caller \"%s\"", cls);
-        return cls;
+        return cfg;
     }
 
-    private static String getCallerTag() {
+    /** Resolve a class name to its configuration, bypassing the cache.
+     *
+     * @param cls The class name.
+     * @return The class's configuration, or a placeholder if none was found.
+     */
+    private LogConfig resolve(String cls) {
+        Map<String, LogConfig> config = mConfig;
+        String name = cls;
+        while (true) {
+            LogConfig cfg = config.get(name);
+            if (cfg != null) {
+                return cfg;
+            }
+            /* Failed to get caller's config... perhaps it's a nested class? */
+            int nest = name.lastIndexOf('$');
+            if (nest <= 0) {
+                break;
+            }
+            name = name.substring(0, nest);
+        }
+        if (mReported.size() < MAX_RESOLVED && mReported.add(name)) {
+            Logf.e("Logf", "Unable to find tag for caller \"%s\"", cls);
+        }
+        LogConfig placeholder = new LogConfig(name, name, Log.VERBOSE, true);
+        synchronized (this) {
+            placeholder.mLevel = getEffectiveLevel(placeholder);
+        }
+        return placeholder;
+    }
+
+    /** Deduce the calling class's logging configuration.
+     *
+     * The stack is walked on every call: nothing available without the walk
+     * identifies the call site (a format string may be shared by several
+     * classes), and attributing a message to the wrong class would give it
+     * the wrong tag and level. Code that logs often should use a handle from
+     * {@link Logf#forClass(Class)} instead.
+     *
+     * @return The caller's logging configuration.
+     */
+    private static LogConfig getCallerConfig() {
         StackTraceElement caller = getCaller();
-        if (caller != null) {
-            Logf instance = getInstance();
-            if (instance != null) {
-                return instance.getTag(caller.getClassName());
-            } else {
-                /* We're more than likely shutting down; use the class name */
-                return caller.getClassName();
+        if (caller == null) {
+            Log.e("Logf", "Unable to find caller; malformed stack? Call from native code?");
+            return new LogConfig("<unknown>", "<unknown>");
+        }
+        return getInstance().getConfig(caller.getClassName(), false);
+    }
+
+    /** Return whether or not a message should be logged for a class.
+     *
+     * @param cfg The class's configuration.
+     * @param level The message's level.
+     * @return True if the message should be logged, false otherwise.
+     */
+    private static boolean isLoggable(LogConfig cfg, int level) {
+        return level >= cfg.mLevel && isLoggable(cfg.mTag, level);
+    }
+
+    /** Write a message that has already passed filtering.
+     *
+     * In asynchronous mode, the message is added to the ring and formatted
+     * later by the drain thread. Otherwise, the message is formatted and
+     * written immediately.
+     *
+     * @param level The message's level.
+     * @param tag The logging tag.
+     * @param format The format string, or the message itself if {@code args}
+     * is {@code null}.
+     * @param args The format arguments, or {@code null} if {@code format} is
+     * already formatted.
+     */
+    private static void write(int level, String tag, String format, Object... args) {
+        Drainer drainer = sDrainer;
+        if (drainer != null) {
+            if (drainer.mRing.offer(System.currentTimeMillis(), level, tagIndex(tag), format, args)) {
+                drainer.wake();
+            }
+            return;
+        }
+        deliver(System.currentTimeMillis(), level, tag, format, args);
+    }
+
+    /** Format a message and write it to the system log and all sinks.
+     *
+     * @param time The message's timestamp, in milliseconds since the epoch.
+     * @param level The message's level.
+     * @param tag The logging tag.
+     * @param format The format string.
+     * @param args The format arguments.
+     */
+    private static void deliver(long time, int level, String tag, String format, Object[] args) {
+        String message = (args == null) ? format : String.format(format, args);
+        Log.println(level, tag, message);
+        for (Sink sink : sSinks) {
+            try {
+                sink.write(time, level, tag, format, args, message);
+            } catch (RuntimeException e) {
+                /* Use Log directly; logging through Logf could fail again */
+                Log.e("Logf", "Sink " + sink + " failed", e);
+            }
+        }
+    }
+
+    /* Start of secondary sinks */
+
+    /** Receives every message written to the system log.
+     *
+     * Sinks are called with the raw format string and arguments in addition
+     * to the formatted message, so that they may store whichever they prefer.
+     * Messages logged already formatted, such as structured events, have
+     * {@code null} arguments and the message as the format string.
+     * In asynchronous mode, sinks are called on the drain thread; otherwise
+     * they're called on the logging thread. Sinks must not retain the
+     * arguments array.
+     */
+    public interface Sink {
+        void write(long time, int level, String tag, String format, Object[] args, String message);
+    }
+
+    private static final CopyOnWriteArrayList<Sink> sSinks = new CopyOnWriteArrayList<>();
+
+    /** Add a secondary sink.
+     *
+     * @param sink The sink to add.
+     */
+    public static void addSink(Sink sink) {
+        sSinks.addIfAbsent(sink);
+    }
+
+    /** Remove a secondary sink.
+     *
+     * @param sink The sink to remove.
+     */
+    public static void removeSink(Sink sink) {
+        sSinks.remove(sink);
+    }
+
+    /* Start of asynchronous logging */
+
+    /* Tag table: asynchronous records refer to their tag by index */
+    private static final ConcurrentHashMap<String, Integer> sTagIndexes = new ConcurrentHashMap<>();
+    private static volatile String[] sTags = new String[0];
+
+    /** Get the index of a tag, adding it to the tag table if needed.
+     *
+     * @param tag The logging tag.
+     * @return The tag's index.
+     */
+    private static int tagIndex(String tag) {
+        Integer index = sTagIndexes.get(tag);
+        if (index != null) {
+            return index;
+        }
+        synchronized (sTagIndexes) {
+            index = sTagIndexes.get(tag);
+            if (index == null) {
+                String[] tags = Arrays.copyOf(sTags, sTags.length + 1);
+                tags[sTags.length] = tag;
+                sTags = tags;
+                index = sTags.length - 1;
+                sTagIndexes.put(tag, index);
+            }
+        }
+        return index;
+    }
+
+    /** Get a tag by its index.
+     *
+     * @param index The tag's index, as returned by {@code tagIndex}.
+     * @return The logging tag.
+     */
+    private static String tagAt(int index) {
+        return sTags[index];
+    }
+
+    /** Background thread writing records from the ring to the system log and sinks. */
+    private static final class Drainer extends Thread implements LogRing.Consumer {
+        /* Records written per pass before re-checking for shutdown */
+        private static final int BATCH_SIZE = 64;
+        /* Upper bound on sleeping; guards against a missed wake-up */
+        private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        final LogRing mRing;
+        private volatile boolean mRunning = true;
+        private volatile boolean mIdle = false;
+
+        Drainer(LogRing ring) {
+            super("Logf-drain");
+            mRing = ring;
+            setDaemon(true);
+            setPriority(Thread.MIN_PRIORITY);
+        }
+
+        /** Wake the thread if it's waiting for records. */
+        void wake() {
+            if (mIdle) {
+                LockSupport.unpark(this);
+            }
+        }
+
+        /** Stop the thread once the ring is empty. */
+        void finish() {
+            mRunning = false;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (mRing.drain(this, BATCH_SIZE) > 0) {
+                    continue;
+                }
+                if (!mRunning) {
+                    break;
+                }
+                /* Announce idleness before the final check so that producers
+                 * adding a record afterwards will see mIdle and wake us */
+                mIdle = true;
+                if (mRing.isEmpty() && mRunning) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                mIdle = false;
+            }
+            /* Catch records added while we were shutting down */
+            mRing.drain(this, mRing.capacity());
+        }
+
+        @Override
+        public void accept(long time, int level, int tag, String format, Object[] args) {
+            try {
+                deliver(time, level, tagAt(tag), format, args);
+            } catch (RuntimeException e) {
+                /* A bad format string, or an argument changed since it was
+                 * logged; an exception here would stop the thread for good */
+                deliver(time, level, tagAt(tag), unformatted(format, args, e), null);
+            }
+        }
+    }
+
+    private static volatile Drainer sDrainer = null;
+
+    /** Describe a message whose arguments could not be formatted.
+     *
+     * @param format The format string.
+     * @param args The format arguments.
+     * @param error Why formatting failed.
+     * @return The format string followed by the arguments, if they can be
+     * converted to strings, or by the error otherwise.
+     */
+    private static String unformatted(String format, Object[] args, RuntimeException error) {
+        try {
+            return format + " " + Arrays.toString(args);
+        } catch (RuntimeException e) {
+            return format + " (arguments not formatted: " + error + ")";
+        }
+    }
+
+    /** Switch to asynchronous logging.
+     *
+     * Records are added to a ring of the given capacity and written by a
+     * background thread. Messages are filtered before being added, so
+     * filtered messages cost the same as in synchronous mode.
+     *
+     * Messages are formatted later, on the background thread: arguments
+     * must not be changed after being logged. A message which cannot be
+     * formatted there, because of a bad format string or an argument whose
+     * {@code toString()} throws, is logged as its format string followed by
+     * its arguments.
+     *
+     * Records still in the ring are lost if the process dies, so this should
+     * not be used while debugging crashes.
+     *
+     * @param capacity The number of records the ring can hold.
+     * @param overflow What to do when the ring is full.
+     * @return True if asynchronous logging was started, false if it was
+     * already running.
+     */
+    public static synchronized boolean startAsync(int capacity, LogRing.Overflow overflow) {
+        if (sDrainer != null) {
+            return false;
+        }
+        Drainer drainer = new Drainer(new LogRing(capacity, overflow));
+        drainer.start();
+        sDrainer = drainer;
+        return true;
+    }
+
+    /** Switch back to synchronous logging.
+     *
+     * Records already in the ring are written before this method returns.
+     */
+    public static synchronized void stopAsync() {
+        Drainer drainer = sDrainer;
+        if (drainer == null) {
+            return;
+        }
+        sDrainer = null;
+        drainer.finish();
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!drainer.isAlive()) {
+            /* Records offered by callers which read sDrainer just before it
+             * was cleared, after the thread's final drain */
+            drainer.mRing.drain(drainer, drainer.mRing.capacity());
+        }
+        long lost = drainer.mRing.getDropped() + drainer.mRing.getOverwritten();
+        if (lost > 0) {
+            Logf.w("Logf", "Asynchronous logging lost %d records", lost);
+        }
+    }
+
+    /** Return whether or not asynchronous logging is running.
+     *
+     * @return True if records are written asynchronously, false otherwise.
+     */
+    public static boolean isAsync() {
+        return sDrainer != null;
+    }
+
+    /** Get the number of records lost to the ring's overflow policy.
+     *
+     * @return The number of dropped or overwritten records, or zero if
+     * asynchronous logging isn't running.
+     */
+    public static long getDroppedCount() {
+        Drainer drainer = sDrainer;
+        if (drainer == null) {
+            return 0;
+        }
+        return drainer.mRing.getDropped() + drainer.mRing.getOverwritten();
+    }
+
+    /* Start of rate limiting */
+
+    /* Summary line reporting messages suppressed by a limiter */
+    private static final String SUPPRESSED_FORMAT = "(%d similar messages suppressed)";
+
+    /* Time between flushes of every limiter's suppressed count */
+    private static final long LIMITER_FLUSH_MILLIS = 1000;
+
+    /* Every limiter used so far, and the thread flushing them, started with
+     * the first limiter; the thread is guarded by sLimiters */
+    private static final CopyOnWriteArrayList<LogLimiter> sLimiters = new CopyOnWriteArrayList<>();
+    private static ScheduledExecutorService sLimiterFlusher = null;
+
+    /** Log a message if the call site's limiter allows it.
+     *
+     * The limiter is only consulted for messages that pass filtering. If
+     * the limiter suppressed messages since it last allowed one, then a
+     * summary line reporting how many is logged first.
+     *
+     * @param cfg The configuration of the class logging the message.
+     * @param limiter The call site's limiter.
+     * @param level The message's level.
+     * @param format The format string.
+     * @param args The format arguments.
+     */
+    private static void logLimited(LogConfig cfg, LogLimiter limiter, int level, String format, Object[] args) {
+        if (!isLoggable(cfg, level)) {
+            return;
+        }
+        if (limiter.bind(cfg.mTag, level)) {
+            registerLimiter(limiter);
+        }
+        if (limiter.tryAcquire()) {
+            long suppressed = limiter.takeSuppressed();
+            if (suppressed > 0) {
+                write(level, cfg.mTag, SUPPRESSED_FORMAT, suppressed);
+            }
+            write(level, cfg.mTag, format, args);
+        }
+    }
+
+    /** Add a limiter to those flushed periodically.
+     *
+     * @param limiter The limiter, used for the first time.
+     */
+    private static void registerLimiter(LogLimiter limiter) {
+        synchronized (sLimiters) {
+            sLimiters.add(limiter);
+            if (sLimiterFlusher == null) {
+                sLimiterFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "Logf-limiters");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                });
+                sLimiterFlusher.scheduleWithFixedDelay(Logf::flushLimiters, LIMITER_FLUSH_MILLIS,
+                        LIMITER_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /** Report the messages suppressed by every limiter in use.
+     *
+     * For each limiter that suppressed messages since it last reported them,
+     * a summary line is logged with the tag and level of the last message
+     * offered to it. This runs about once a second on a background thread,
+     * so that a call site which stops logging still reports what it
+     * suppressed; call it directly to report the counts sooner, such as
+     * before the process exits.
+     */
+    public static void flushLimiters() {
+        for (LogLimiter limiter : sLimiters) {
+            try {
+                String tag = limiter.getTag();
+                int level = limiter.getLevel();
+                if (isLoggable(tag, level)) {
+                    long suppressed = limiter.takeSuppressed();
+                    if (suppressed > 0) {
+                        write(level, tag, SUPPRESSED_FORMAT, suppressed);
+                    }
+                }
+            } catch (RuntimeException e) {
+                /* Keep the periodic flush running; use Log directly */
+                Log.e("Logf", "Flushing " + limiter + " failed", e);
             }
         }
-        Log.e("Logf", "Unable to find caller; malformed stack? Call from native code?");
-        return "<unknown>";
     }
 
     /* Start of static Logf methods */
 
     public static void v(String tag, String format, Object... args) {
-        Log.v(tag, String.format(format, args));
+        if (isLoggable(tag, Log.VERBOSE)) write(Log.VERBOSE, tag, format, args);
     }
     public static void d(String tag, String format, Object... args) {
-        Log.d(tag, String.format(format, args));
+        if (isLoggable(tag, Log.DEBUG)) write(Log.DEBUG, tag, format, args);
     }
     public static void i(String tag, String format, Object... args) {
-        Log.i(tag, String.format(format, args));
+        if (isLoggable(tag, Log.INFO)) write(Log.INFO, tag, format, args);
     }
     public static void w(String tag, String format, Object... args) {
-        Log.w(tag, String.format(format, args));
+        if (isLoggable(tag, Log.WARN)) write(Log.WARN, tag, format, args);
     }
     public static void e(String tag, String format, Object... args) {
-        Log.e(tag, String.format(format, args));
+        if (isLoggable(tag, Log.ERROR)) write(Log.ERROR, tag, format, args);
     }
 
+    /* Single primitive argument overloads; these avoid boxing when filtered */
+
+    public static void v(String tag, String format, int arg) {
+        if (isLoggable(tag, Log.VERBOSE)) write(Log.VERBOSE, tag, format, arg);
+    }
+    public static void d(String tag, String format, int arg) {
+        if (isLoggable(tag, Log.DEBUG)) write(Log.DEBUG, tag, format, arg);
+    }
+    public static void i(String tag, String format, int arg) {
+        if (isLoggable(tag, Log.INFO)) write(Log.INFO, tag, format, arg);
+    }
+    public static void w(String tag, String format, int arg) {
+        if (isLoggable(tag, Log.WARN)) write(Log.WARN, tag, format, arg);
+    }
+    public static void e(String tag, String format, int arg) {
+        if (isLoggable(tag, Log.ERROR)) write(Log.ERROR, tag, format, arg);
+    }
+    public static void v(String tag, String format, long arg) {
+        if (isLoggable(tag, Log.VERBOSE)) write(Log.VERBOSE, tag, format, arg);
+    }
+    public static void d(String tag, String format, long arg) {
+        if (isLoggable(tag, Log.DEBUG)) write(Log.DEBUG, tag, format, arg);
+    }
+    public static void i(String tag, String format, long arg) {
+        if (isLoggable(tag, Log.INFO)) write(Log.INFO, tag, format, arg);
+    }
+    public static void w(String tag, String format, long arg) {
+        if (isLoggable(tag, Log.WARN)) write(Log.WARN, tag, format, arg);
+    }
+    public static void e(String tag, String format, long arg) {
+        if (isLoggable(tag, Log.ERROR)) write(Log.ERROR, tag, format, arg);
+    }
+    public static void v(String tag, String format, float arg) {
+        if (isLoggable(tag, Log.VERBOSE)) write(Log.VERBOSE, tag, format, arg);
+    }
+    public static void d(String tag, String format, float arg) {
+        if (isLoggable(tag, Log.DEBUG)) write(Log.DEBUG, tag, format, arg);
+    }
+    public static void i(String tag, String format, float arg) {
+        if (isLoggable(tag, Log.INFO)) write(Log.INFO, tag, format, arg);
+    }
+    public static void w(String tag, String format, float arg) {
+        if (isLoggable(tag, Log.WARN)) write(Log.WARN, tag, format, arg);
+    }
+    public static void e(String tag, String format, float arg) {
+        if (isLoggable(tag, Log.ERROR)) write(Log.ERROR, tag, format, arg);
+    }
+
+    /* Caller-deduced methods */
+
     public static void vc(String format, Object... args) {
-        v(getCallerTag(), format, args);
+        LogConfig cfg = getCallerConfig();
+        if (isLoggable(cfg, Log.VERBOSE)) write(Log.VERBOSE, cfg.mTag, format, args);
     }
     public static void dc(String format, Object... args) {
-        d(getCallerTag(), format, args);
+        LogConfig cfg = getCallerConfig();
+        if (isLoggable(cfg, Log.DEBUG)) write(Log.DEBUG, cfg.mTag, format, args);
     }
     public static void ic(String format, Object... args) {
-        i(getCallerTag(), format, args);
+        LogConfig cfg = getCallerConfig();
+        if (isLoggable(cfg, Log.INFO)) write(Log.INFO, cfg.mTag, format, args);
     }
     public static void wc(String format, Object... args) {
-        w(getCallerTag(), format, args);
+        LogConfig cfg = getCallerConfig();
+        if (isLoggable(cfg, Log.WARN)) write(Log.WARN, cfg.mTag, format, args);
     }
     public static void ec(String format, Object... args) {
-        e(getCallerTag(), format, args);
+        LogConfig cfg = getCallerConfig();
+        if (isLoggable(cfg, Log.ERROR)) write(Log.ERROR, cfg.mTag, format, args);
+    }
+
+    /* Caller-deduced methods with a limiter; see Logger#log */
+
+    public static void vc(LogLimiter limiter, String format, Object... args) {
+        logLimited(getCallerConfig(), limiter, Log.VERBOSE, format, args);
+    }
+    public static void dc(LogLimiter limiter, String format, Object... args) {
+        logLimited(getCallerConfig(), limiter, Log.DEBUG, format, args);
+    }
+    public static void ic(LogLimiter limiter, String format, Object... args) {
+        logLimited(getCallerConfig(), limiter, Log.INFO, format, args);
+    }
+    public static void wc(LogLimiter limiter, String format, Object... args) {
+        logLimited(getCallerConfig(), limiter, Log.WARN, format, args);
+    }
+    public static void ec(LogLimiter limiter, String format, Object... args) {
+        logLimited(getCallerConfig(), limiter, Log.ERROR, format, args);
+    }
+
+    /* Start of structured events */
+
+    /* Per-thread event builders, reused for every event */
+    private static final ThreadLocal<Event> sEvents = ThreadLocal.withInitial(() -> new Event(true));
+
+    /* Returned instead of a builder when the event would be filtered */
+    private static final Event sDisabledEvent = new Event(false);
+
+    /** Begin a structured event logged at {@code DEBUG} level.
+     *
+     * @param tag The logging tag.
+     * @return The calling thread's event builder.
+     * @see Event
+     */
+    public static Event event(String tag) {
+        return event(tag, Log.DEBUG);
+    }
+
+    /** Begin a structured event.
+     *
+     * @param tag The logging tag.
+     * @param level The event's level.
+     * @return The calling thread's event builder.
+     * @see Event
+     */
+    public static Event event(String tag, int level) {
+        if (!isLoggable(tag, level)) {
+            return sDisabledEvent;
+        }
+        return sEvents.get().begin(tag, level);
+    }
+
+    /** Structured key/value event builder.
+     *
+     * Obtain via {@link Logf#event(String)} or {@link Logger#event(int)}:
+     *
+     * <pre>{@code
+     * Logf.event(LOG_TAG).kv("pid", Os.getpid()).kv("uid", Os.getuid()).emit();
+     * }</pre>
+     *
+     * Pairs are rendered in logfmt style, {@code key=value key="quoted value"},
+     * which reads well in logcat and is simple to parse. Primitive values are
+     * appended without boxing. Values containing spaces, quotes, or
+     * {@code =} are quoted and escaped.
+     *
+     * Each thread has a single builder which is reused for every event, so
+     * an event must be emitted before the thread begins another. If the event
+     * would be filtered, a shared disabled builder is returned instead and all
+     * of its methods do nothing.
+     */
+    public static final class Event {
+        /* Builders larger than this are discarded after emitting */
+        private static final int MAX_RETAINED_CAPACITY = 4096;
+
+        private final boolean mEnabled;
+        private StringBuilder mLine = new StringBuilder(256);
+        private String mTag;
+        private int mLevel;
+
+        private Event(boolean enabled) {
+            mEnabled = enabled;
+        }
+
+        private Event begin(String tag, int level) {
+            mTag = tag;
+            mLevel = level;
+            mLine.setLength(0);
+            return this;
+        }
+
+        /** Append the separator and key for a new pair. */
+        private StringBuilder key(String key) {
+            if (mLine.length() > 0) {
+                mLine.append(' ');
+            }
+            return mLine.append(key).append('=');
+        }
+
+        public Event kv(String key, int value) {
+            if (mEnabled) key(key).append(value);
+            return this;
+        }
+        public Event kv(String key, long value) {
+            if (mEnabled) key(key).append(value);
+            return this;
+        }
+        public Event kv(String key, float value) {
+            if (mEnabled) key(key).append(value);
+            return this;
+        }
+        public Event kv(String key, double value) {
+            if (mEnabled) key(key).append(value);
+            return this;
+        }
+        public Event kv(String key, boolean value) {
+            if (mEnabled) key(key).append(value);
+            return this;
+        }
+        public Event kv(String key, CharSequence value) {
+            if (mEnabled) appendValue(key(key), value);
+            return this;
+        }
+        public Event kv(String key, Object value) {
+            if (mEnabled) appendValue(key(key), value == null ? null : value.toString());
+            return this;
+        }
+
+        /** Append a value, quoting and escaping it if needed. */
+        private static void appendValue(StringBuilder sb, CharSequence value) {
+            if (value == null) {
+                sb.append("null");
+                return;
+            }
+            boolean quote = value.length() == 0;
+            for (int i = 0; i < value.length() && !quote; ++i) {
+                char c = value.charAt(i);
+                quote = c <= ' ' || c == '=' || c == '"' || c == '\\';
+            }
+            if (!quote) {
+                sb.append(value);
+                return;
+            }
+            sb.append('"');
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+
+        /** Log the event and reset the builder. */
+        public void emit() {
+            if (!mEnabled) {
+                return;
+            }
+            write(mLevel, mTag, mLine.toString(), (Object[]) null);
+            if (mLine.capacity() > MAX_RETAINED_CAPACITY) {
+                mLine = new StringBuilder(256);
+            } else {
+                mLine.setLength(0);
+            }
+        }
+    }
+
+    /* Start of Logf handle */
+
+    /** Logging handle bound to a single class.
+     *
+     * Obtain via {@link Logf#forClass(Class)}. The tag is resolved when the
+     * handle is created, so logging through a handle avoids the stack walk
+     * performed by the {@code *c} methods. Messages are discarded while the
+     * class is disabled.
+     */
+    public static final class Logger {
+        private final LogConfig mConfig;
+
+        private Logger(LogConfig config) {
+            mConfig = config;
+        }
+
+        /** Get the tag this handle logs with.
+         *
+         * @return The logging tag.
+         */
+        public String getTag() {
+            return mConfig.mTag;
+        }
+
+        /** Return whether or not logging is enabled for this handle's class.
+         *
+         * @return True if at least some messages will be logged, false if the
+         * class is disabled.
+         */
+        public boolean isEnabled() {
+            return mConfig.mLevel < LEVEL_OFF;
+        }
+
+        /** Return whether or not a message of the given level will be logged.
+         *
+         * Use this to guard expensive argument computation.
+         *
+         * @param level The message's level.
+         * @return True if the message will be logged, false otherwise.
+         */
+        public boolean isLoggable(int level) {
+            return Logf.isLoggable(mConfig, level);
+        }
+
+        public void v(String format, Object... args) {
+            if (Logf.isLoggable(mConfig, Log.VERBOSE)) write(Log.VERBOSE, mConfig.mTag, format, args);
+        }
+        public void d(String format, Object... args) {
+            if (Logf.isLoggable(mConfig, Log.DEBUG)) write(Log.DEBUG, mConfig.mTag, format, args);
+        }
+        public void i(String format, Object... args) {
+            if (Logf.isLoggable(mConfig, Log.INFO)) write(Log.INFO, mConfig.mTag, format, args);
+        }
+        public void w(String format, Object... args) {
+            if (Logf.isLoggable(mConfig, Log.WARN)) write(Log.WARN, mConfig.mTag, format, args);
+        }
+        public void e(String format, Object... args) {
+            if (Logf.isLoggable(mConfig, Log.ERROR)) write(Log.ERROR, mConfig.mTag, format, args);
+        }
+
+        public void v(String format, int arg) {
+            if (Logf.isLoggable(mConfig, Log.VERBOSE)) write(Log.VERBOSE, mConfig.mTag, format, arg);
+        }
+        public void d(String format, int arg) {
+            if (Logf.isLoggable(mConfig, Log.DEBUG)) write(Log.DEBUG, mConfig.mTag, format, arg);
+        }
+        public void i(String format, int arg) {
+            if (Logf.isLoggable(mConfig, Log.INFO)) write(Log.INFO, mConfig.mTag, format, arg);
+        }
+        public void w(String format, int arg) {
+            if (Logf.isLoggable(mConfig, Log.WARN)) write(Log.WARN, mConfig.mTag, format, arg);
+        }
+        public void e(String format, int arg) {
+            if (Logf.isLoggable(mConfig, Log.ERROR)) write(Log.ERROR, mConfig.mTag, format, arg);
+        }
+        public void v(String format, long arg) {
+            if (Logf.isLoggable(mConfig, Log.VERBOSE)) write(Log.VERBOSE, mConfig.mTag, format, arg);
+        }
+        public void d(String format, long arg) {
+            if (Logf.isLoggable(mConfig, Log.DEBUG)) write(Log.DEBUG, mConfig.mTag, format, arg);
+        }
+        public void i(String format, long arg) {
+            if (Logf.isLoggable(mConfig, Log.INFO)) write(Log.INFO, mConfig.mTag, format, arg);
+        }
+        public void w(String format, long arg) {
+            if (Logf.isLoggable(mConfig, Log.WARN)) write(Log.WARN, mConfig.mTag, format, arg);
+        }
+        public void e(String format, long arg) {
+            if (Logf.isLoggable(mConfig, Log.ERROR)) write(Log.ERROR, mConfig.mTag, format, arg);
+        }
+        public void v(String format, float arg) {
+            if (Logf.isLoggable(mConfig, Log.VERBOSE)) write(Log.VERBOSE, mConfig.mTag, format, arg);
+        }
+        public void d(String format, float arg) {
+            if (Logf.isLoggable(mConfig, Log.DEBUG)) write(Log.DEBUG, mConfig.mTag, format, arg);
+        }
+        public void i(String format, float arg) {
+            if (Logf.isLoggable(mConfig, Log.INFO)) write(Log.INFO, mConfig.mTag, format, arg);
+        }
+        public void w(String format, float arg) {
+            if (Logf.isLoggable(mConfig, Log.WARN)) write(Log.WARN, mConfig.mTag, format, arg);
+        }
+        public void e(String format, float arg) {
+            if (Logf.isLoggable(mConfig, Log.ERROR)) write(Log.ERROR, mConfig.mTag, format, arg);
+        }
+
+        /** Begin a structured event for this handle's class.
+         *
+         * @param level The event's level.
+         * @return The calling thread's event builder.
+         * @see Event
+         */
+        public Event event(int level) {
+            if (!Logf.isLoggable(mConfig, level)) {
+                return sDisabledEvent;
+            }
+            return sEvents.get().begin(mConfig.mTag, level);
+        }
+
+        /** Log a message if the call site's limiter allows it.
+         *
+         * The limiter is only consulted for messages that pass filtering. If
+         * the limiter suppressed messages since it last allowed one, then a
+         * summary line reporting how many is logged first. Counts not yet
+         * reported this way are flushed periodically; see
+         * {@link Logf#flushLimiters()}.
+         *
+         * @param limiter The call site's limiter.
+         * @param level The message's level.
+         * @param format The format string.
+         * @param args The format arguments.
+         */
+        public void log(LogLimiter limiter, int level, String format, Object... args) {
+            logLimited(mConfig, limiter, level, format, args);
+        }
+
+        public void v(LogLimiter limiter, String format, Object... args) {
+            log(limiter, Log.VERBOSE, format, args);
+        }
+        public void d(LogLimiter limiter, String format, Object... args) {
+            log(limiter, Log.DEBUG, format, args);
+        }
+        public void i(LogLimiter limiter, String format, Object... args) {
+            log(limiter, Log.INFO, format, args);
+        }
+        public void w(LogLimiter limiter, String format, Object... args) {
+            log(limiter, Log.WARN, format, args);
+        }
+        public void e(LogLimiter limiter, String format, Object... args) {
+            log(limiter, Log.ERROR, format, args);
+        }
     }
 }
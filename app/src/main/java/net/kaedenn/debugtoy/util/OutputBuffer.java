@@ -0,0 +1,96 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.function.Consumer;
+
+/** Output which is either passed on or held until it can be shown.
+ *
+ * While attached, lines are passed straight to the target. While detached,
+ * they are held in a {@link LineRing}, so a command printing a great deal
+ * while nobody is looking holds only its newest lines. Attaching passes the
+ * held lines to the target, oldest first, before any new line.
+ *
+ * All methods may be called from any thread.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class OutputBuffer implements Consumer<CharSequence> {
+    private final Consumer<CharSequence> mTarget;
+
+    /* Guarded by this */
+    private final LineRing mHeld;
+    private boolean mAttached;
+
+    /** Construct a buffer.
+     *
+     * @param target Receives lines while attached.
+     * @param maxLines The most lines held while detached.
+     * @param maxChars The most characters held while detached.
+     * @param attached True to start attached.
+     */
+    public OutputBuffer(Consumer<CharSequence> target, int maxLines, long maxChars, boolean attached) {
+        mTarget = target;
+        mHeld = new LineRing(maxLines, maxChars);
+        mAttached = attached;
+    }
+
+    /** Pass a line to the target, or hold it if detached.
+     *
+     * @param line The line.
+     */
+    @Override
+    public synchronized void accept(CharSequence line) {
+        if (mAttached) {
+            mTarget.accept(line);
+        } else {
+            mHeld.add(line);
+        }
+    }
+
+    /** Pass the held lines to the target and pass on further lines.
+     *
+     * If lines were discarded while detached, a note saying how many
+     * precedes the held lines.
+     *
+     * @return The number of held lines passed on.
+     */
+    public synchronized int attach() {
+        int count = mHeld.size();
+        if (mHeld.getDiscarded() > 0) {
+            mTarget.accept(String.format("(%d earlier lines were discarded)", mHeld.getDiscarded()));
+        }
+        for (int i = 0; i < count; ++i) {
+            mTarget.accept(mHeld.get(i));
+        }
+        mHeld.clear();
+        mAttached = true;
+        return count;
+    }
+
+    /** Hold further lines instead of passing them on. */
+    public synchronized void detach() {
+        mAttached = false;
+    }
+
+    /** Return whether or not lines are passed straight to the target.
+     *
+     * @return True if attached.
+     */
+    public synchronized boolean isAttached() {
+        return mAttached;
+    }
+
+    /** Get the number of lines held.
+     *
+     * @return The number of lines waiting to be shown.
+     */
+    public synchronized int getHeld() {
+        return mHeld.size();
+    }
+
+    /** Get the number of lines discarded while detached.
+     *
+     * @return The number of lines discarded since last attached.
+     */
+    public synchronized long getDiscarded() {
+        return mHeld.getDiscarded();
+    }
+}
@@ -0,0 +1,206 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Map from strings to values supporting prefix queries.
+ *
+ * Besides exact lookups, the trie answers the questions a command line
+ * needs: which keys start with a prefix ({@link #complete}), how far a
+ * prefix can be extended unambiguously ({@link #extend}), which single key
+ * an abbreviation stands for ({@link #resolve}), and the shortest such
+ * abbreviation ({@link #abbreviate}).
+ *
+ * Each node counts the keys beneath it, so {@code resolve} and
+ * {@code extend} take time proportional to the length of the key rather
+ * than the number of keys. Children are kept sorted, so completions are
+ * returned in order.
+ *
+ * This class is not thread-safe.
+ *
+ * @param <V> The type of value stored.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class PrefixTrie<V> {
+
+    private static final class Node<V> {
+        final TreeMap<Character, Node<V>> mChildren = new TreeMap<>();
+        V mValue = null;
+        /* Number of keys ending at or below this node */
+        int mCount = 0;
+    }
+
+    private final Node<V> mRoot = new Node<>();
+
+    /** Add or replace a key.
+     *
+     * @param key The key.
+     * @param value The value; must not be {@code null}.
+     * @return The value previously stored for the key, or {@code null}.
+     */
+    public V put(String key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null value");
+        }
+        V previous = get(key);
+        Node<V> node = mRoot;
+        if (previous == null) {
+            ++node.mCount;
+        }
+        for (int i = 0; i < key.length(); ++i) {
+            node = node.mChildren.computeIfAbsent(key.charAt(i), c -> new Node<>());
+            if (previous == null) {
+                ++node.mCount;
+            }
+        }
+        node.mValue = value;
+        return previous;
+    }
+
+    /** Remove a key.
+     *
+     * @param key The key.
+     * @return The value that was stored for the key, or {@code null}.
+     */
+    public V remove(String key) {
+        V previous = get(key);
+        if (previous == null) {
+            return null;
+        }
+        Node<V> node = mRoot;
+        --node.mCount;
+        for (int i = 0; i < key.length(); ++i) {
+            Node<V> child = node.mChildren.get(key.charAt(i));
+            if (--child.mCount == 0) {
+                /* Nothing else beneath; drop the whole branch */
+                node.mChildren.remove(key.charAt(i));
+                return previous;
+            }
+            node = child;
+        }
+        node.mValue = null;
+        return previous;
+    }
+
+    /** Get the value for a key.
+     *
+     * @param key The key.
+     * @return The value, or {@code null} if the key is not present.
+     */
+    public V get(String key) {
+        Node<V> node = find(key);
+        return (node == null) ? null : node.mValue;
+    }
+
+    /** Get the number of keys.
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+        return mRoot.mCount;
+    }
+
+    /** Find the value a key or an unambiguous abbreviation refers to.
+     *
+     * An exact match always wins. Otherwise, the prefix must be the start of
+     * exactly one key.
+     *
+     * @param prefix The key or abbreviation.
+     * @return The value, or {@code null} if there is no match or the
+     * abbreviation is ambiguous.
+     */
+    public V resolve(String prefix) {
+        Node<V> node = find(prefix);
+        if (node == null) {
+            return null;
+        } else if (node.mValue != null) {
+            return node.mValue;
+        } else if (node.mCount != 1) {
+            return null;
+        }
+        /* Follow the only branch down to its key */
+        while (node.mValue == null) {
+            node = node.mChildren.firstEntry().getValue();
+        }
+        return node.mValue;
+    }
+
+    /** Extend a prefix as far as every key starting with it agrees.
+     *
+     * This is what pressing tab in a shell does: {@code "lo"} becomes
+     * {@code "log"} if the keys are {@code "logs"} and {@code "logdump"}.
+     *
+     * @param prefix The prefix to extend.
+     * @return The longest common prefix of the keys starting with
+     * {@code prefix}, or {@code prefix} itself if no key starts with it.
+     */
+    public String extend(String prefix) {
+        Node<V> node = find(prefix);
+        if (node == null) {
+            return prefix;
+        }
+        StringBuilder sb = new StringBuilder(prefix);
+        while (node.mValue == null && node.mChildren.size() == 1) {
+            Map.Entry<Character, Node<V>> only = node.mChildren.firstEntry();
+            sb.append(only.getKey().charValue());
+            node = only.getValue();
+        }
+        return sb.toString();
+    }
+
+    /** Get the shortest abbreviation {@link #resolve} accepts for a key.
+     *
+     * @param key The key.
+     * @return The shortest prefix of {@code key} which starts no other key,
+     * or {@code key} itself if every prefix is ambiguous. Returns
+     * {@code null} if the key is not present.
+     */
+    public String abbreviate(String key) {
+        if (get(key) == null) {
+            return null;
+        }
+        Node<V> node = mRoot;
+        for (int i = 0; i < key.length(); ++i) {
+            node = node.mChildren.get(key.charAt(i));
+            if (node.mCount == 1) {
+                return key.substring(0, i + 1);
+            }
+        }
+        return key;
+    }
+
+    /** Get the keys starting with a prefix, in order.
+     *
+     * @param prefix The prefix.
+     * @return The matching keys.
+     */
+    public List<String> complete(String prefix) {
+        List<String> keys = new ArrayList<>();
+        Node<V> node = find(prefix);
+        if (node != null) {
+            collect(node, new StringBuilder(prefix), keys);
+        }
+        return keys;
+    }
+
+    private static <V> void collect(Node<V> node, StringBuilder key, List<String> keys) {
+        if (node.mValue != null) {
+            keys.add(key.toString());
+        }
+        for (Map.Entry<Character, Node<V>> child : node.mChildren.entrySet()) {
+            key.append(child.getKey().charValue());
+            collect(child.getValue(), key, keys);
+            key.setLength(key.length() - 1);
+        }
+    }
+
+    private Node<V> find(String key) {
+        Node<V> node = mRoot;
+        for (int i = 0; i < key.length() && node != null; ++i) {
+            node = node.mChildren.get(key.charAt(i));
+        }
+        return node;
+    }
+}
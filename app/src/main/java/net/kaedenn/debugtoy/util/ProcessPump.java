@@ -0,0 +1,227 @@
+package net.kaedenn.debugtoy.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Forward a process's output, line by line, while it runs.
+ *
+ * Standard output and standard error are each drained by their own thread
+ * as soon as the process writes to them, so a process writing more than the
+ * pipe buffer never blocks waiting for a reader. Each reader uses a fixed
+ * read buffer and a fixed line buffer; lines longer than the line buffer are
+ * split.
+ *
+ * Complete lines pass through a bounded queue to the calling thread, which
+ * hands them to a {@link Sink} in the order they were read. When the sink
+ * falls behind, the queue fills and the readers stop reading, which in turn
+ * makes the process wait: output is never buffered without limit.
+ *
+ * After the configured number of bytes, further output is read and
+ * discarded so that the process can run to completion; the result records
+ * that the output was truncated.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ProcessPump {
+
+    /** Receives the process's output lines, on the thread calling
+     * {@link ProcessPump#run}. */
+    public interface Sink {
+        void accept(boolean stderr, String line);
+    }
+
+    /** Outcome of running a process. */
+    public static final class Result {
+        /** The process's exit code, or -1 if it was killed after timing out. */
+        public final int mExitCode;
+        /** True if the process was killed after timing out. */
+        public final boolean mTimedOut;
+        /** Total number of bytes the process wrote. */
+        public final long mBytes;
+        /** True if some output was discarded because of the byte limit. */
+        public final boolean mTruncated;
+
+        Result(int exitCode, boolean timedOut, long bytes, boolean truncated) {
+            mExitCode = exitCode;
+            mTimedOut = timedOut;
+            mBytes = bytes;
+            mTruncated = truncated;
+        }
+    }
+
+    /** A line read from one of a process's streams. */
+    static final class Line {
+        final boolean mStderr;
+        /* Null once the stream has ended */
+        final String mText;
+
+        Line(boolean stderr, String text) {
+            mStderr = stderr;
+            mText = text;
+        }
+    }
+
+    /** Receives the lines read by {@link #readLines}; may wait for room. */
+    interface LineQueue {
+        void put(Line line) throws InterruptedException;
+    }
+
+    private final int mBufferSize;
+    private final long mMaxBytes;
+    private final BlockingQueue<Line> mQueue;
+
+    /* Bytes read from both streams */
+    private final AtomicLong mBytes = new AtomicLong();
+
+    /* Set once the calling thread stops taking lines from the queue */
+    private volatile boolean mClosed = false;
+
+    /* How often a reader blocked on a full queue checks mClosed */
+    private static final long QUEUE_POLL_MILLIS = 50;
+
+    /** Construct a pump for a single process.
+     *
+     * @param bufferSize The size of each stream's read and line buffers.
+     * @param queueSize The number of lines that may wait for the sink.
+     * @param maxBytes The number of bytes of output to forward.
+     */
+    public ProcessPump(int bufferSize, int queueSize, long maxBytes) {
+        mBufferSize = bufferSize;
+        mMaxBytes = maxBytes;
+        mQueue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    /** Forward the process's output until it exits.
+     *
+     * If the timeout elapses or the calling thread is interrupted, the
+     * process is killed.
+     *
+     * @param process The process, which should not yet have been read from.
+     * @param timeout The longest time to wait for the process.
+     * @param unit The unit of {@code timeout}.
+     * @param sink Receives the output lines.
+     * @return The outcome.
+     * @throws InterruptedException If the calling thread was interrupted.
+     */
+    public Result run(Process process, long timeout, TimeUnit unit, Sink sink) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        Thread stdout = startReader(process.getInputStream(), false, "stdout");
+        Thread stderr = startReader(process.getErrorStream(), true, "stderr");
+        boolean timedOut = false;
+        try {
+            int open = 2;
+            while (open > 0) {
+                Line line = mQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (line == null) {
+                    timedOut = true;
+                    break;
+                } else if (line.mText == null) {
+                    --open;
+                } else {
+                    sink.accept(line.mStderr, line.mText);
+                }
+            }
+            if (!timedOut && !process.waitFor(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                timedOut = true;
+            }
+        } finally {
+            if (timedOut || Thread.currentThread().isInterrupted() || process.isAlive()) {
+                process.destroyForcibly();
+            }
+            /* Let readers waiting for queue space exit */
+            mClosed = true;
+            mQueue.clear();
+        }
+        stdout.join(TimeUnit.SECONDS.toMillis(1));
+        stderr.join(TimeUnit.SECONDS.toMillis(1));
+        long bytes = mBytes.get();
+        return new Result(timedOut ? -1 : process.exitValue(), timedOut, bytes, bytes > mMaxBytes);
+    }
+
+    private Thread startReader(InputStream stream, boolean isStderr, String name) {
+        Thread t = new Thread(() -> readLines(stream, isStderr, mBufferSize, mBytes, mMaxBytes, this::put),
+                "pump-" + name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    /** Read a stream to its end, queueing each line.
+     *
+     * Uses a fixed read buffer and a fixed line buffer, each
+     * {@code bufferSize} bytes; longer lines are split. A line's trailing
+     * carriage return is removed. Once the stream ends, or reading it fails
+     * because the process was killed, the stream is closed and a line with
+     * {@code null} text is queued.
+     *
+     * @param stream The stream.
+     * @param isStderr True if the stream is the process's standard error.
+     * @param bufferSize The size of the read and line buffers.
+     * @param bytes Counts the bytes read, including discarded bytes; may be
+     * shared by several readers.
+     * @param maxBytes The number of bytes, counted by {@code bytes}, to
+     * forward; later bytes are read and discarded.
+     * @param queue Receives the lines.
+     */
+    static void readLines(InputStream stream, boolean isStderr, int bufferSize, AtomicLong bytes, long maxBytes,
+                          LineQueue queue) {
+        byte[] buffer = new byte[bufferSize];
+        byte[] line = new byte[bufferSize];
+        int lineLength = 0;
+        try {
+            int n;
+            while ((n = stream.read(buffer)) > 0) {
+                long total = bytes.addAndGet(n);
+                /* Forward only the bytes within the limit */
+                int limit = (int) Math.max(0, Math.min(n, maxBytes - (total - n)));
+                for (int i = 0; i < limit; ++i) {
+                    byte b = buffer[i];
+                    if (b == '\n' || lineLength == line.length) {
+                        queue.put(new Line(isStderr, decode(line, lineLength)));
+                        lineLength = 0;
+                        if (b == '\n') {
+                            continue;
+                        }
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+            if (lineLength > 0) {
+                queue.put(new Line(isStderr, decode(line, lineLength)));
+            }
+        } catch (IOException e) {
+            /* Stream closed because the process was killed */
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                /* Nothing more to read anyway */
+            }
+            try {
+                queue.put(new Line(isStderr, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Queue a line, waiting for space unless the caller has stopped. */
+    private void put(Line line) throws InterruptedException {
+        while (!mClosed && !mQueue.offer(line, QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            /* Queue is full; wait for the sink to catch up */
+        }
+    }
+
+    private static String decode(byte[] line, int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            --length;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+package net.kaedenn.debugtoy.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/** Read the commands of a script one at a time.
+ *
+ * The script is read as it is consumed, so only the current command is held
+ * in memory however long the script is. Blank lines and lines whose first
+ * non-blank character is {@code #} are skipped. A line ending in an unescaped
+ * backslash continues on the next line; the backslash and line break are
+ * removed. Commands are returned with surrounding whitespace trimmed.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ScriptReader implements Closeable {
+    private final BufferedReader mReader;
+    private int mLinesRead = 0;
+    private int mLineNumber = 0;
+
+    /** Construct a reader for a script.
+     *
+     * @param reader The script's text; closed with this reader.
+     */
+    public ScriptReader(Reader reader) {
+        mReader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /** Read the next command.
+     *
+     * @return The command, or {@code null} at the end of the script.
+     * @throws IOException If the script cannot be read.
+     */
+    public String next() throws IOException {
+        StringBuilder command = null;
+        String line;
+        while ((line = mReader.readLine()) != null) {
+            if (++mLinesRead == 1 && line.startsWith("\uFEFF")) {
+                /* Byte order mark left by some editors */
+                line = line.substring(1);
+            }
+            if (command == null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                command = new StringBuilder();
+                mLineNumber = mLinesRead;
+            }
+            if (!continues(line)) {
+                return command.append(line).toString().trim();
+            }
+            command.append(line, 0, line.length() - 1);
+        }
+        /* A continuation on the last line ends the command */
+        return (command == null) ? null : command.toString().trim();
+    }
+
+    /** Get the line number on which the last command started.
+     *
+     * @return The line number, from 1, or 0 before the first command.
+     */
+    public int getLineNumber() {
+        return mLineNumber;
+    }
+
+    /** Close the script.
+     *
+     * @throws IOException If closing the underlying reader fails.
+     */
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /* Return whether a line ends in an odd number of backslashes */
+    private static boolean continues(String line) {
+        int count = 0;
+        for (int i = line.length() - 1; i >= 0 && line.charAt(i) == '\\'; --i) {
+            ++count;
+        }
+        return count % 2 == 1;
+    }
+}
@@ -0,0 +1,246 @@
+package net.kaedenn.debugtoy.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** A long-running shell that executes commands one at a time.
+ *
+ * Running commands in one shell avoids starting a process per command and
+ * keeps the shell's state, such as the working directory and exported
+ * variables, between commands.
+ *
+ * Each command is written to the shell's standard input followed by
+ * commands printing a marker line to standard output (with the command's
+ * exit status) and to standard error. The command's output ends where the
+ * markers appear. The marker includes a random value chosen when the shell
+ * starts, so command output is very unlikely to contain it by accident.
+ * Commands run with their standard input redirected from {@code /dev/null}
+ * so that they cannot consume the commands that follow them.
+ *
+ * A command that times out or is interrupted is killed along with the shell,
+ * and a command that makes the shell exit ends the session. Either way, the
+ * next command starts a new shell.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class ShellSession implements Closeable {
+    private static final String LOG_TAG = "shell-session";
+    static {
+        Logf.getInstance().add(ShellSession.class, LOG_TAG);
+    }
+
+    /* How often a reader blocked on a full queue checks for a dead shell */
+    private static final long QUEUE_POLL_MILLIS = 50;
+
+    private final String mShell;
+    private final int mBufferSize;
+    private final int mQueueSize;
+    private final long mMaxBytes;
+
+    /* Held while running a command; waiting for it may be interrupted */
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /* The running shell, if any; written only while holding mLock */
+    private volatile Process mProcess = null;
+    private Writer mStdin = null;
+    private BlockingQueue<ProcessPump.Line> mQueue = null;
+    private String mMarker = null;
+    private volatile int mStarts = 0;
+
+    /** Construct a session. The shell is started by the first command.
+     *
+     * @param shell The shell to run, such as {@code "sh"}.
+     * @param bufferSize The size of each stream's read and line buffers.
+     * @param queueSize The number of lines that may wait for the sink.
+     * @param maxBytes The number of bytes of each command's output to
+     * forward; the rest is discarded.
+     */
+    public ShellSession(String shell, int bufferSize, int queueSize, long maxBytes) {
+        mShell = shell;
+        mBufferSize = bufferSize;
+        mQueueSize = queueSize;
+        mMaxBytes = maxBytes;
+    }
+
+    /** Get the number of times a shell has been started.
+     *
+     * @return The number of shells started.
+     */
+    public int getStarts() {
+        return mStarts;
+    }
+
+    /** Return whether or not a shell is currently running.
+     *
+     * @return True if the shell is running, false otherwise.
+     */
+    public boolean isRunning() {
+        Process process = mProcess;
+        return process != null && process.isAlive();
+    }
+
+    /** Run a command, forwarding its output until it completes.
+     *
+     * Commands run one at a time; this waits for any other command to
+     * complete first. The timeout includes that wait.
+     *
+     * @param command The command to run. It may span several lines, but
+     * must be complete: an unterminated quote or block swallows the markers
+     * and the command times out.
+     * @param timeout The longest time to wait for the command.
+     * @param unit The unit of {@code timeout}.
+     * @param sink Receives the output lines.
+     * @return The outcome. The exit code is -1 if the command timed out.
+     * @throws IOException If the shell could not be started.
+     * @throws InterruptedException If the calling thread was interrupted;
+     * the shell is killed.
+     */
+    public ProcessPump.Result run(String command, long timeout, TimeUnit unit,
+                                  ProcessPump.Sink sink) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (!mLock.tryLock(timeout, unit)) {
+            return new ProcessPump.Result(-1, true, 0, false);
+        }
+        try {
+            return runLocked(command, deadline, sink);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private ProcessPump.Result runLocked(String command, long deadline,
+                                         ProcessPump.Sink sink) throws IOException, InterruptedException {
+        if (mProcess == null || !mProcess.isAlive()) {
+            start();
+        }
+        try {
+            mStdin.write(String.format("{ %s\n} </dev/null; printf '%%s %%d\\n' %s \"$?\"; printf '%%s\\n' %s >&2\n",
+                    command, mMarker, mMarker));
+            mStdin.flush();
+        } catch (IOException e) {
+            /* The shell exited between commands */
+            stop();
+            throw e;
+        }
+        long bytes = 0;
+        int status = -1;
+        boolean stdoutDone = false;
+        boolean stderrDone = false;
+        try {
+            while (!stdoutDone || !stderrDone) {
+                ProcessPump.Line line = mQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (line == null) {
+                    Logf.wc("Command timed out; restarting shell");
+                    stop();
+                    return new ProcessPump.Result(-1, true, bytes, bytes > mMaxBytes);
+                }
+                if (line.mText == null) {
+                    /* The command made the shell exit */
+                    int exitCode = mProcess.waitFor();
+                    Logf.wc("Shell exited with status %d", exitCode);
+                    stop();
+                    return new ProcessPump.Result(exitCode, false, bytes, bytes > mMaxBytes);
+                }
+                String text = line.mText;
+                int markerIndex = text.indexOf(mMarker);
+                if (markerIndex >= 0) {
+                    if (line.mStderr) {
+                        stderrDone = true;
+                    } else {
+                        stdoutDone = true;
+                        Integer s = Str.tryParseInteger(text.substring(markerIndex + mMarker.length()).trim());
+                        status = (s == null) ? -1 : s;
+                    }
+                    /* Output not ending in a newline shares the marker's line */
+                    text = text.substring(0, markerIndex);
+                    if (text.isEmpty()) {
+                        continue;
+                    }
+                }
+                bytes += text.length() + 1;
+                if (bytes <= mMaxBytes) {
+                    sink.accept(line.mStderr, text);
+                }
+            }
+        } catch (InterruptedException e) {
+            stop();
+            throw e;
+        }
+        return new ProcessPump.Result(status, false, bytes, bytes > mMaxBytes);
+    }
+
+    /** Kill the shell. A later command starts a new one.
+     *
+     * This does not wait for a running command; that command ends as if it
+     * had made the shell exit.
+     */
+    @Override
+    public void close() {
+        Process process = mProcess;
+        if (process != null) {
+            process.destroyForcibly();
+        }
+    }
+
+    private void start() throws IOException {
+        stop();
+        Process process = new ProcessBuilder(mShell).start();
+        BlockingQueue<ProcessPump.Line> queue = new ArrayBlockingQueue<>(mQueueSize);
+        startReader(process, false, queue);
+        startReader(process, true, queue);
+        mProcess = process;
+        mStdin = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+        mQueue = queue;
+        mMarker = String.format("__debugtoy_%016x__", ThreadLocalRandom.current().nextLong());
+        ++mStarts;
+        Logf.ic("Started shell %s (%d)", mShell, mStarts);
+    }
+
+    private void stop() {
+        if (mProcess != null) {
+            mProcess.destroyForcibly();
+            mProcess = null;
+            mStdin = null;
+            mQueue = null;
+        }
+    }
+
+    private void startReader(Process process, boolean isStderr, BlockingQueue<ProcessPump.Line> queue) {
+        Thread t = new Thread(() -> read(process, isStderr, queue), isStderr ? "shell-stderr" : "shell-stdout");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Read one of the shell's output streams to its end, queueing each line.
+     *
+     * Lines are read by {@link ProcessPump#readLines}. Byte limits apply
+     * per command, so the reader forwards everything. When the queue is
+     * full, the reader stops reading until there is room, which makes the
+     * shell wait for the command reading the queue.
+     */
+    private void read(Process process, boolean isStderr, BlockingQueue<ProcessPump.Line> queue) {
+        InputStream stream = isStderr ? process.getErrorStream() : process.getInputStream();
+        ProcessPump.readLines(stream, isStderr, mBufferSize, new AtomicLong(), Long.MAX_VALUE,
+                line -> put(process, queue, line));
+    }
+
+    /** Queue a line, waiting for room unless the shell has been killed. */
+    private static void put(Process process, BlockingQueue<ProcessPump.Line> queue,
+                            ProcessPump.Line line) throws InterruptedException {
+        while (!queue.offer(line, QUEUE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (!process.isAlive()) {
+                /* Nobody will read the rest */
+                return;
+            }
+        }
+    }
+}
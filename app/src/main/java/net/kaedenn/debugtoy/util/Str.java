@@ -1,8 +1,11 @@
 package net.kaedenn.debugtoy.util;
 
 import android.annotation.SuppressLint;
+import android.graphics.Typeface;
 import android.text.Html;
+import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.style.StyleSpan;
 import android.view.Gravity;
 
 @SuppressLint("DefaultLocale")
@@ -121,6 +124,42 @@ public final class Str {
         return Html.fromHtml(String.format("%s%s %s %s", ph, kh, sh, vh), 0);
     }
 
+    /** Style a key/value pair without parsing HTML.
+     *
+     * The result looks like {@link #kvToHtml(String, String, String, String)}
+     * but is built directly from spans, which is much cheaper when styling
+     * many pairs. No escaping is needed: the text is used as-is.
+     *
+     * @param k The key.
+     * @param v The value.
+     * @param prefix The prefix string, or {@code null} for none.
+     * @param sep The separator string.
+     * @return A {@code Spanned} string {@code "p k s v"} where the prefix is
+     * italicized and the key is bold.
+     */
+    public static Spanned kvToSpanned(String k, String v, String prefix, String sep) {
+        SpannableStringBuilder sb = new SpannableStringBuilder();
+        if (prefix != null) {
+            sb.append(prefix, new StyleSpan(Typeface.ITALIC), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            sb.append(' ');
+        }
+        sb.append(k, new StyleSpan(Typeface.BOLD), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        sb.append(' ').append(sep).append(' ').append(v);
+        return sb;
+    }
+
+    /** Style a key/value pair without parsing HTML.
+     *
+     * @param k The key.
+     * @param v The value.
+     * @param prefix The prefix string, or {@code null} for none.
+     * @return A {@code Spanned} string {@code "p k - v"}; see
+     * {@link #kvToSpanned(String, String, String, String)}.
+     */
+    public static Spanned kvToSpanned(String k, String v, String prefix) {
+        return kvToSpanned(k, v, prefix, "-");
+    }
+
     /** Convert a Gravity bitmask to a String.
      *
      * This is a public version of the {@code Gravity.toString()} method, which
@@ -183,6 +222,10 @@ public final class Str {
     }
 
     /** Try to parse the string as an Integer with the given radix.
+     *
+     * Accepts the same strings as {@link Integer#parseInt(String, int)}, but
+     * reports failure by returning {@code null} rather than by throwing, so
+     * that rejecting user input is cheap.
      *
      * @param s The string to parse.
      * @param radix The radix to use.
@@ -190,11 +233,31 @@ public final class Str {
      * @see Integer#parseInt(String, int)
      */
     public static Integer tryParseInteger(String s, int radix) {
-        try {
-            return Integer.parseInt(s, radix);
-        } catch (NumberFormatException e) {
+        if (s == null || s.isEmpty() || radix < Character.MIN_RADIX || radix > Character.MAX_RADIX) {
             return null;
         }
+        int i = 0;
+        boolean negative = false;
+        if (s.charAt(0) == '-' || s.charAt(0) == '+') {
+            negative = s.charAt(0) == '-';
+            if (++i == s.length()) {
+                return null;
+            }
+        }
+        /* Accumulate as a negative number, which has the larger range */
+        long limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < s.length(); ++i) {
+            int digit = Character.digit(s.charAt(i), radix);
+            if (digit < 0) {
+                return null;
+            }
+            value = value * radix - digit;
+            if (value < limit) {
+                return null;
+            }
+        }
+        return (int) (negative ? value : -value);
     }
 
     /** Try to parse the string as a base-10 Integer.
@@ -209,13 +272,68 @@ public final class Str {
         return tryParseInteger(s, 10);
     }
 
+    /** Return whether or not the string is a plain decimal number.
+     *
+     * Plain decimal numbers have an optional sign, digits with an optional
+     * decimal point, and an optional exponent; for example {@code -1.5e3}.
+     * Only the ASCII digits {@code 0} to {@code 9} are accepted, as they are
+     * the only digits {@link Double#parseDouble(String)} understands.
+     *
+     * @param s The string to examine.
+     * @return True if the string is a plain decimal number.
+     */
+    public static boolean isDecimal(String s) {
+        int n = s.length();
+        int i = 0;
+        if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            ++i;
+        }
+        int digits = 0;
+        for (; i < n && isAsciiDigit(s.charAt(i)); ++i) {
+            ++digits;
+        }
+        if (i < n && s.charAt(i) == '.') {
+            for (++i; i < n && isAsciiDigit(s.charAt(i)); ++i) {
+                ++digits;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            ++i;
+            if (i < n && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                ++i;
+            }
+            int exponentDigits = 0;
+            for (; i < n && isAsciiDigit(s.charAt(i)); ++i) {
+                ++exponentDigits;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return i == n;
+    }
+
+    /* Return whether a character is one of the ASCII digits 0 to 9 */
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
     /** Try to parse the string as a Float.
-     * 
+     *
+     * Only plain decimal numbers are accepted (see {@link #isDecimal}),
+     * ignoring surrounding whitespace. Failure is reported without throwing.
+     *
      * @param s The string to parse.
      * @return A {@code Float} or {@code null}.
      * @see Float#parseFloat(String)
      */
     public static Float tryParseFloat(String s) {
+        if (s == null || !isDecimal(s.trim())) {
+            return null;
+        }
         try {
             return Float.parseFloat(s);
         } catch (NumberFormatException e) {
@@ -224,12 +342,18 @@ public final class Str {
     }
 
     /** Try to parse the string as a Double.
-     * 
+     *
+     * Only plain decimal numbers are accepted (see {@link #isDecimal}),
+     * ignoring surrounding whitespace. Failure is reported without throwing.
+     *
      * @param s The string to parse.
      * @return A {@code Double} or {@code null}.
-     * @see Double#parseDouble(String) 
+     * @see Double#parseDouble(String)
      */
     public static Double tryParseDouble(String s) {
+        if (s == null || !isDecimal(s.trim())) {
+            return null;
+        }
         try {
             return Double.parseDouble(s);
         } catch (NumberFormatException e) {
@@ -0,0 +1,237 @@
+package net.kaedenn.debugtoy.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/** Split a command line into words, honoring shell-style quoting.
+ *
+ * Words are separated by whitespace. Within a word:
+ * <ul>
+ *   <li>{@code 'single quotes'} keep everything up to the next single quote
+ *   literally;</li>
+ *   <li>{@code "double quotes"} keep everything up to the next unescaped
+ *   double quote, where a backslash escapes a double quote or backslash;</li>
+ *   <li>outside quotes, a backslash keeps the next character literally.</li>
+ * </ul>
+ * Quotes may appear in the middle of a word, as in {@code -t"my tag"}, and
+ * {@code ""} is an empty word.
+ *
+ * Errors such as an unterminated quote are reported through
+ * {@link #getError()} rather than by throwing. The offset at which each word
+ * starts is kept so that callers can take the rest of the line verbatim.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class Tokenizer {
+    private final String mLine;
+    private final List<String> mWords = new ArrayList<>();
+    private final List<Integer> mOffsets = new ArrayList<>();
+    private String mError = null;
+
+    private Tokenizer(String line) {
+        mLine = line;
+    }
+
+    /** Split a line into words.
+     *
+     * @param line The line to split.
+     * @return The result; check {@link #getError()} before using the words.
+     */
+    public static Tokenizer tokenize(String line) {
+        Tokenizer t = new Tokenizer(line == null ? "" : line);
+        t.split();
+        return t;
+    }
+
+    /** Split a line at a separator character outside of quotes.
+     *
+     * Quotes and backslashes are left in place; each piece is exactly the
+     * text between separators, so joining the pieces with the separator
+     * gives back the line. An unterminated quote runs to the end of the
+     * line.
+     *
+     * @param line The line to split.
+     * @param separator The separator, such as {@code '|'}.
+     * @return The pieces; at least one, possibly empty.
+     */
+    public static List<String> split(String line, char separator) {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        char quote = 0;
+        for (int i = 0; i < line.length(); ++i) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                }
+            } else if (c == '\\') {
+                /* Skip the escaped character, in or out of double quotes */
+                ++i;
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == separator) {
+                pieces.add(line.substring(start, i));
+                start = i + 1;
+            }
+        }
+        pieces.add(line.substring(start));
+        return pieces;
+    }
+
+    /** Split a command line into the commands of a pipeline.
+     *
+     * The line is split at each {@code |} outside quotes (see
+     * {@link #split}), but a piece only starts a new command if it names
+     * one; otherwise the {@code |} and the piece belong to the command
+     * before. Once a command takes the rest of the line verbatim, such as a
+     * shell command, nothing after it is split off, so {@code ! ps | tail}
+     * stays one command.
+     *
+     * Each piece is parsed once, by {@code parse}, and the result is used
+     * both to decide where commands start and as the command itself. Only
+     * a command which had pieces joined to it is parsed again, once, from
+     * its whole text; pieces following a verbatim command are not parsed at
+     * all.
+     *
+     * @param line The command line.
+     * @param parse Parses a command's text, returning {@code null} if it
+     * does not start with a command name.
+     * @param raw Tests whether a parsed command takes the rest of the line
+     * verbatim.
+     * @param <T> The type of a parsed command.
+     * @return The parsed commands, in order; empty if the line is
+     * {@code null}. Only the first may be {@code null}, when the line does
+     * not start with a command name.
+     */
+    public static <T> List<T> splitPipeline(String line, Function<String, T> parse, Predicate<T> raw) {
+        List<T> commands = new ArrayList<>();
+        if (line == null) {
+            return commands;
+        }
+        /* The command being built: its text, and its parse unless joined */
+        String text = null;
+        T command = null;
+        boolean joined = false;
+        boolean isRaw = false;
+        for (String piece : split(line, '|')) {
+            T parsed = (text != null && isRaw) ? null : parse.apply(piece);
+            if (text != null && (isRaw || parsed == null)) {
+                /* The bar belongs to the previous command */
+                text = text + "|" + piece;
+                joined = true;
+                continue;
+            }
+            if (text != null) {
+                commands.add(joined ? parse.apply(text) : command);
+            }
+            text = piece;
+            command = parsed;
+            joined = false;
+            isRaw = parsed != null && raw.test(parsed);
+        }
+        commands.add(joined ? parse.apply(text) : command);
+        return commands;
+    }
+
+    private void split() {
+        final String s = mLine;
+        final int n = s.length();
+        StringBuilder word = new StringBuilder();
+        int i = 0;
+        while (true) {
+            while (i < n && Character.isWhitespace(s.charAt(i))) {
+                ++i;
+            }
+            if (i == n) {
+                return;
+            }
+            int start = i;
+            word.setLength(0);
+            while (i < n && !Character.isWhitespace(s.charAt(i))) {
+                char c = s.charAt(i++);
+                if (c == '\'') {
+                    int close = s.indexOf('\'', i);
+                    if (close < 0) {
+                        mError = String.format("unterminated ' starting at column %d", i);
+                        return;
+                    }
+                    word.append(s, i, close);
+                    i = close + 1;
+                } else if (c == '"') {
+                    int column = i;
+                    while (i < n && s.charAt(i) != '"') {
+                        c = s.charAt(i++);
+                        if (c == '\\' && i < n && (s.charAt(i) == '"' || s.charAt(i) == '\\')) {
+                            c = s.charAt(i++);
+                        }
+                        word.append(c);
+                    }
+                    if (i == n) {
+                        mError = String.format("unterminated \" starting at column %d", column);
+                        return;
+                    }
+                    ++i;
+                } else if (c == '\\') {
+                    if (i == n) {
+                        mError = "trailing \\";
+                        return;
+                    }
+                    word.append(s.charAt(i++));
+                } else {
+                    word.append(c);
+                }
+            }
+            mWords.add(word.toString());
+            mOffsets.add(start);
+        }
+    }
+
+    /** Get the error that stopped tokenizing.
+     *
+     * @return A description of the error, or {@code null} if the whole line
+     * was split successfully.
+     */
+    public String getError() {
+        return mError;
+    }
+
+    /** Get the words, with quoting removed.
+     *
+     * @return The words found before any error.
+     */
+    public List<String> getWords() {
+        return mWords;
+    }
+
+    /** Get the number of words.
+     *
+     * @return The number of words.
+     */
+    public int size() {
+        return mWords.size();
+    }
+
+    /** Get a word.
+     *
+     * @param index The word's index.
+     * @return The word, with quoting removed.
+     */
+    public String get(int index) {
+        return mWords.get(index);
+    }
+
+    /** Get the line from a word to the end, exactly as written.
+     *
+     * @param index The index of the first word.
+     * @return The rest of the line, with quoting left in place, or the
+     * empty string if {@code index} is past the last word.
+     */
+    public String rest(int index) {
+        return (index < mOffsets.size()) ? mLine.substring(mOffsets.get(index)).trim() : "";
+    }
+}
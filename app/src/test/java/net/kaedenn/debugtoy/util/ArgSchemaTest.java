@@ -0,0 +1,118 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ArgSchemaTest {
+
+    private static ArgSchema schema() {
+        return new ArgSchema()
+                .flag("-v", "verbose")
+                .option("-t", ArgSchema.Param.string("tag"))
+                .option("-l", ArgSchema.Param.choice("level", "V", "D", "I"))
+                .positional(ArgSchema.Param.integer("count", 1, 10))
+                .positional(ArgSchema.Param.decimal("ratio", 0, 1).withDefault(0.5))
+                .rest("pattern", "what to match");
+    }
+
+    @Test
+    public void typedValues() {
+        ArgSchema.Values v = schema().parse("-v -t 'my tag' -l d 3 0.25 a  \"b c\"");
+        assertNull(v.getError());
+        assertTrue(v.getFlag("-v"));
+        assertEquals("my tag", v.getString("tag"));
+        assertEquals("D", v.getString("level"));
+        assertEquals(3, v.getInt("count", 0));
+        assertEquals(0.25, v.getDouble("ratio", 0), 0);
+        assertEquals("a  \"b c\"", v.getRest());
+        assertEquals(Arrays.asList("a", "b c"), v.getRestWords());
+    }
+
+    @Test
+    public void defaults() {
+        ArgSchema.Values v = schema().parse("7");
+        assertTrue(v.isValid());
+        assertFalse(v.getFlag("-v"));
+        assertFalse(v.has("tag"));
+        assertNull(v.getString("tag"));
+        assertEquals(0.5, v.getDouble("ratio", 0), 0);
+        assertEquals("", v.getRest());
+    }
+
+    @Test
+    public void negativeNumbersArePositional() {
+        ArgSchema s = new ArgSchema().positional(ArgSchema.Param.integer("n", -5, 5));
+        assertEquals(-3, s.parse("-3").getInt("n", 0));
+        assertEquals(-4, s.parse("-- -4").getInt("n", 0));
+    }
+
+    @Test
+    public void errors() {
+        ArgSchema s = schema();
+        assertEquals("missing argument <count>", s.parse("").getError());
+        assertEquals("count must be an integer 1..10, not \"11\"", s.parse("11").getError());
+        assertEquals("count must be an integer 1..10, not \"x\"", s.parse("x").getError());
+        assertEquals("ratio must be a number 0.0..1.0, not \"2\"", s.parse("1 2").getError());
+        assertEquals("level must be one of V|D|I, not \"q\"", s.parse("-l q 1").getError());
+        assertEquals("unknown option -x", s.parse("-x 1").getError());
+        assertEquals("option -t needs a value (tag)", s.parse("1 -t").getError());
+        assertEquals("unexpected argument \"b\"", new ArgSchema().parse("b").getError());
+        assertNotNull(s.parse("1 'open").getError());
+        assertEquals("ratio must be a number 0.0..1.0, not \"\u0661\"", s.parse("1 \u0661").getError());
+    }
+
+    @Test
+    public void raw() {
+        assertTrue(new ArgSchema().rest("command", "").isRaw());
+        assertTrue(new ArgSchema().flag("-s", "").line("command", "").isRaw());
+        assertFalse(schema().isRaw());
+        assertFalse(new ArgSchema().isRaw());
+    }
+
+    @Test
+    public void lineKeepsEscapes() {
+        ArgSchema s = new ArgSchema()
+                .option("-t", ArgSchema.Param.string("tag"))
+                .line("regex", "");
+        ArgSchema.Values v = s.parse("-t main \\d+ a|b");
+        assertNull(v.getError());
+        assertEquals("main", v.getString("tag"));
+        assertEquals("\\d+ a|b", v.getRest().trim());
+    }
+
+    @Test
+    public void restOnlyIsUntouched() {
+        ArgSchema.Values v = new ArgSchema().rest("command", "").parse(" echo 'unbalanced ");
+        assertNull(v.getError());
+        assertEquals("echo 'unbalanced", v.getRest());
+    }
+
+    @Test
+    public void help() {
+        ArgSchema s = schema();
+        assertEquals("[-v] [-t tag] [-l level] <count> [ratio] [pattern...]", s.usage());
+        assertEquals(Arrays.asList(
+                "  -v           verbose",
+                "  -t tag       text",
+                "  -l level     V|D|I",
+                "  count        integer 1..10",
+                "  ratio        number 0.0..1.0, default 0.5",
+                "  pattern...   what to match"), s.describe());
+        assertEquals("", new ArgSchema().usage());
+    }
+
+    @Test
+    public void requiredAfterOptional() {
+        try {
+            new ArgSchema()
+                    .positional(ArgSchema.Param.string("a").optional())
+                    .positional(ArgSchema.Param.string("b"));
+            fail("required argument accepted after an optional one");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+}
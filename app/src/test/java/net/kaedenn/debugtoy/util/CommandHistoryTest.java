@@ -0,0 +1,154 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommandHistoryTest {
+    private File mDirectory;
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("history").toFile();
+        mFile = new File(mDirectory, "history");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    private CommandHistory open(int maxEntries) throws InterruptedException {
+        CommandHistory history = new CommandHistory(mFile, maxEntries);
+        assertTrue(history.awaitLoaded(5, TimeUnit.SECONDS));
+        return history;
+    }
+
+    @Test
+    public void addsAndNumbersEntries() throws InterruptedException {
+        CommandHistory history = open(100);
+        history.add("env");
+        history.add("env");
+        history.add("  ");
+        history.add("logs -t main");
+        history.add("env");
+        assertEquals(3, history.size());
+        assertEquals("env", history.get(1));
+        assertEquals("logs -t main", history.get(2));
+        assertEquals("env", history.get(3));
+        assertNull(history.get(0));
+        assertNull(history.get(4));
+        history.close();
+    }
+
+    @Test
+    public void searchResumesFromMatch() throws InterruptedException {
+        CommandHistory history = open(100);
+        history.add("logs -t main");
+        history.add("env");
+        history.add("logs -l E");
+        history.add("help");
+        assertEquals(3, history.search("logs", history.size() + 1));
+        assertEquals(1, history.search("logs", 2));
+        assertEquals(0, history.search("logs", 0));
+        assertEquals(1, history.search("logs -t", 3));
+        assertEquals(0, history.search("missing", 100));
+        history.close();
+    }
+
+    @Test
+    public void clearWhileLoading() throws InterruptedException {
+        CommandHistory history = open(10000);
+        for (int i = 1; i <= 5000; ++i) {
+            history.add("cmd " + i);
+        }
+        history.close();
+        /* Clear without waiting; memory and file must agree either way */
+        history = new CommandHistory(mFile, 10000);
+        history.clear();
+        history.add("after");
+        assertTrue(history.awaitLoaded(5, TimeUnit.SECONDS));
+        history.close();
+        assertEquals(1, history.size());
+        assertEquals("after", history.get(1));
+        history = open(10000);
+        assertEquals(1, history.size());
+        assertEquals("after", history.get(1));
+        history.close();
+    }
+
+    @Test
+    public void encodesToOneLine() {
+        String entry = "a\\b\nc\rd\\n";
+        String line = CommandHistory.encode(entry);
+        assertEquals(-1, line.indexOf('\n'));
+        assertEquals(-1, line.indexOf('\r'));
+        assertEquals(entry, CommandHistory.decode(line));
+        assertEquals("plain", CommandHistory.encode("plain"));
+    }
+
+    @Test
+    public void persistsAcrossInstances() throws InterruptedException {
+        CommandHistory history = open(100);
+        history.add("one");
+        history.add("two\nlines");
+        history.close();
+        history = open(100);
+        assertEquals(2, history.size());
+        assertEquals("one", history.get(1));
+        assertEquals("two\nlines", history.get(2));
+        history.add("three");
+        history.close();
+        history = open(100);
+        assertEquals(3, history.size());
+        assertEquals("three", history.get(3));
+        history.close();
+    }
+
+    @Test
+    public void trimsAndCompacts() throws InterruptedException, IOException {
+        CommandHistory history = open(4);
+        for (int i = 1; i <= 20; ++i) {
+            history.add("cmd " + i);
+        }
+        assertEquals(4, history.size());
+        assertEquals("cmd 17", history.get(1));
+        history.close();
+        /* The file never holds more than twice the entries kept */
+        assertTrue(Files.readAllLines(mFile.toPath(), StandardCharsets.UTF_8).size() <= 8);
+        history = open(4);
+        assertEquals(4, history.size());
+        assertEquals("cmd 17", history.get(1));
+        assertEquals("cmd 20", history.get(4));
+        history.close();
+    }
+
+    @Test
+    public void clearEmptiesFile() throws InterruptedException {
+        CommandHistory history = open(100);
+        history.add("one");
+        history.clear();
+        assertEquals(0, history.size());
+        history.close();
+        history = open(100);
+        assertEquals(0, history.size());
+        history.close();
+    }
+}
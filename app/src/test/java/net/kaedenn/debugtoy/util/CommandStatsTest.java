@@ -0,0 +1,45 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommandStatsTest {
+
+    @Test
+    public void utf8Length() {
+        assertEquals(0, CommandStats.utf8Length(""));
+        assertEquals(5, CommandStats.utf8Length("hello"));
+        assertEquals(2, CommandStats.utf8Length("\u00e9"));
+        assertEquals(3, CommandStats.utf8Length("\u20ac"));
+        assertEquals(4, CommandStats.utf8Length("\ud83d\ude00"));
+    }
+
+    @Test
+    public void totals() {
+        CommandStats s = new CommandStats("env");
+        s.record(2000000, 1000000, false);
+        s.record(4000000, -1, true);
+        s.addOutput("abc");
+        s.addOutput("\u00e9");
+        assertEquals(2, s.getRuns());
+        assertEquals(1, s.getErrors());
+        assertEquals(1000000, s.getCpuNanos());
+        assertEquals(1000000.0, s.getCpuMeanNanos(), 0);
+        assertEquals(2, s.getLines());
+        assertEquals(7, s.getBytes());
+        assertEquals(4000000, s.getWallTime().getMax());
+        s.reset();
+        assertEquals(0, s.getRuns());
+        assertEquals(0, s.getBytes());
+    }
+
+    @Test
+    public void csv() {
+        CommandStats s = new CommandStats("a,\"b\"");
+        s.record(1500000, 500000, false);
+        s.addOutput("x");
+        assertEquals(CommandStats.CSV_HEADER.split(",").length, s.toCsv().split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)").length);
+        assertEquals("\"a,\"\"b\"\"\",1,0,1.500,1.500,1.500,1.500,1.500,0.500,0.500,1,2", s.toCsv());
+    }
+}
@@ -0,0 +1,66 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EnvSnapshotTest {
+
+    private static EnvSnapshot snapshot(String... keys) {
+        List<EnvSnapshot.Entry> entries = new ArrayList<>();
+        for (String key : keys) {
+            entries.add(new EnvSnapshot.Entry(EnvSnapshot.VARIABLE, key, key.toLowerCase()));
+        }
+        return new EnvSnapshot(entries, System.nanoTime());
+    }
+
+    private static String keys(List<EnvSnapshot.Entry> entries) {
+        StringBuilder sb = new StringBuilder();
+        for (EnvSnapshot.Entry e : entries) {
+            sb.append(e.getKey()).append(';');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void sortsIgnoringCase() {
+        EnvSnapshot env = snapshot("PATH", "java.home", "HOME", "Android");
+        assertEquals("Android;HOME;java.home;PATH;", keys(env.getEntries()));
+    }
+
+    @Test
+    public void findsPrefix() {
+        EnvSnapshot env = snapshot("PATH", "java.home", "java.version", "javax.net", "HOME", "jav");
+        assertEquals("jav;java.home;java.version;javax.net;", keys(env.withPrefix("jav")));
+        assertEquals("java.home;java.version;", keys(env.withPrefix("JAVA.")));
+        assertEquals("PATH;", keys(env.withPrefix("p")));
+        assertEquals("", keys(env.withPrefix("zzz")));
+        assertEquals(6, env.withPrefix("").size());
+    }
+
+    @Test
+    public void capturesProperties() {
+        EnvSnapshot env = EnvSnapshot.capture(Collections.singletonMap("files", "/data/files"));
+        List<EnvSnapshot.Entry> java = env.withPrefix("java.version");
+        assertFalse(java.isEmpty());
+        assertEquals(EnvSnapshot.PROPERTY, java.get(0).getSource());
+        assertEquals(System.getProperty("java.version"), java.get(0).getValue());
+        List<EnvSnapshot.Entry> files = env.withPrefix("files");
+        assertEquals(1, files.size());
+        assertNull(files.get(0).getSource());
+        assertEquals("/data/files", files.get(0).getValue());
+    }
+
+    @Test
+    public void expires() {
+        EnvSnapshot env = new EnvSnapshot(new ArrayList<>(), System.nanoTime() - TimeUnit.SECONDS.toNanos(60));
+        assertFalse(env.isFresh(30, TimeUnit.SECONDS));
+        assertTrue(env.isFresh(90, TimeUnit.SECONDS));
+        assertTrue(env.getAge(TimeUnit.SECONDS) >= 60);
+    }
+}
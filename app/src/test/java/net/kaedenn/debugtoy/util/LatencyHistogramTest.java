@@ -0,0 +1,69 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE};
+        for (long v : values) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            assertTrue(v <= LatencyHistogram.bucketMax(bucket));
+            if (bucket > 0) {
+                assertTrue(v > LatencyHistogram.bucketMax(bucket - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketMax(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void relativeError() {
+        for (long v = 16; v < 1L << 40; v = v * 3 + 7) {
+            long max = LatencyHistogram.bucketMax(LatencyHistogram.bucketOf(v));
+            assertTrue((double) (max - v) / v <= 1.0 / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentile(50));
+        for (int i = 1; i <= 1000; ++i) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(1000000, h.getMax());
+        assertEquals(500500.0, h.getMean(), 0.001);
+        assertEquals(500000, h.getPercentile(50), 500000 / 16);
+        assertEquals(900000, h.getPercentile(90), 900000 / 16);
+        assertEquals(990000, h.getPercentile(99), 990000 / 16);
+        assertEquals(1000000, h.getPercentile(100));
+        assertTrue(h.getPercentile(99) <= h.getMax());
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void concurrentRecording() throws InterruptedException {
+        LatencyHistogram h = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; ++i) {
+                    h.record(i + offset);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(40000, h.getCount());
+        assertEquals(10002, h.getMax());
+    }
+}
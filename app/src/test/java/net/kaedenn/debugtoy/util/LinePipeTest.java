@@ -0,0 +1,85 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LinePipeTest {
+
+    @Test
+    public void drainsAfterCloseWrite() throws InterruptedException {
+        LinePipe pipe = new LinePipe(4);
+        assertTrue(pipe.write("a"));
+        assertTrue(pipe.write("b"));
+        pipe.closeWrite();
+        assertEquals("a", pipe.read());
+        assertEquals("b", pipe.read());
+        assertNull(pipe.read());
+        assertNull(pipe.read());
+    }
+
+    @Test
+    public void streamsThroughSmallBuffer() throws InterruptedException {
+        LinePipe pipe = new LinePipe(2);
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 1000; ++i) {
+                    pipe.write(Integer.toString(i));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                pipe.closeWrite();
+            }
+        });
+        writer.start();
+        List<String> lines = new ArrayList<>();
+        CharSequence line;
+        while ((line = pipe.read()) != null) {
+            lines.add(line.toString());
+        }
+        writer.join();
+        assertEquals(1000, lines.size());
+        assertEquals("0", lines.get(0));
+        assertEquals("999", lines.get(999));
+    }
+
+    @Test
+    public void closeReadReleasesWriter() throws InterruptedException {
+        LinePipe pipe = new LinePipe(1);
+        AtomicInteger written = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            try {
+                while (pipe.write("x")) {
+                    written.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        writer.start();
+        assertEquals("x", pipe.read());
+        pipe.closeRead();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertTrue(pipe.isReadClosed());
+        assertNull(pipe.read());
+        assertTrue(written.get() <= 2);
+    }
+
+    @Test
+    public void writeAfterCloseWriteFails() throws InterruptedException {
+        LinePipe pipe = new LinePipe(1);
+        pipe.closeWrite();
+        try {
+            pipe.write("x");
+            fail("write accepted after closeWrite");
+        } catch (IllegalStateException e) {
+            /* Expected */
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LineRingTest {
+
+    private static String contents(LineRing ring) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ring.size(); ++i) {
+            sb.append(ring.get(i)).append(';');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void lineLimit() {
+        LineRing ring = new LineRing(3, 1000);
+        for (int i = 0; i < 5; ++i) {
+            ring.add("line" + i);
+        }
+        assertEquals(3, ring.size());
+        assertEquals(2, ring.getDiscarded());
+        assertEquals("line2;line3;line4;", contents(ring));
+        assertEquals(15, ring.chars());
+    }
+
+    @Test
+    public void charLimit() {
+        LineRing ring = new LineRing(10, 10);
+        ring.add("aaaa");
+        ring.add("bbbb");
+        ring.add("cccc");
+        assertEquals("bbbb;cccc;", contents(ring));
+        ring.add("0123456789abc");
+        assertEquals("0123456789;", contents(ring));
+        assertEquals(10, ring.chars());
+    }
+
+    @Test
+    public void clear() {
+        LineRing ring = new LineRing(2, 10);
+        ring.add("a");
+        ring.add("b");
+        ring.add("c");
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.chars());
+        ring.add("d");
+        assertEquals("d;", contents(ring));
+    }
+
+    @Test
+    public void sequenceSurvivesDiscards() {
+        LineRing ring = new LineRing(3, 100);
+        ring.add("a");
+        ring.add("b");
+        long b = ring.sequenceOf(1);
+        ring.add("c");
+        ring.add("d");
+        assertEquals(0, ring.indexOf(b));
+        ring.set(ring.indexOf(b), "B");
+        assertEquals("B;c;d;", contents(ring));
+        ring.add("e");
+        assertEquals(-1, ring.indexOf(b));
+        long e = ring.sequenceOf(2);
+        ring.clear();
+        assertEquals(-1, ring.indexOf(e));
+    }
+
+    @Test
+    public void setMakesRoom() {
+        LineRing ring = new LineRing(10, 10);
+        ring.add("aaa");
+        ring.add("bbb");
+        ring.add("ccc");
+        ring.set(2, "cccccc");
+        assertEquals("bbb;cccccc;", contents(ring));
+        assertEquals(9, ring.chars());
+        ring.set(0, "0123456789");
+        assertEquals("0123;cccccc;", contents(ring));
+        assertEquals(10, ring.chars());
+        ring.set(1, "x");
+        assertEquals(5, ring.chars());
+    }
+
+    @Test
+    public void outOfBounds() {
+        try {
+            new LineRing(2, 10).get(0);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            /* expected */
+        }
+    }
+}
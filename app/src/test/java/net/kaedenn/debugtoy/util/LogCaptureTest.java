@@ -0,0 +1,65 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class LogCaptureTest {
+
+    private static List<String> messages(List<LogCapture.Record> records) {
+        List<String> messages = new ArrayList<>();
+        for (LogCapture.Record r : records) {
+            messages.add(r.mMessage);
+        }
+        return messages;
+    }
+
+    @Test
+    public void keepsNewest() {
+        LogCapture capture = new LogCapture(3, 100);
+        for (int i = 0; i < 5; ++i) {
+            capture.write(i, 3, "tag", null, null, "m" + i);
+        }
+        assertEquals(5, capture.getCount());
+        assertEquals("[m2, m3, m4]", messages(capture.query(null, 0, null)).toString());
+    }
+
+    @Test
+    public void filters() {
+        LogCapture capture = new LogCapture(8, 100);
+        capture.write(0, 3, "a", null, null, "debug from a");
+        capture.write(0, 5, "a", null, null, "warning from a");
+        capture.write(0, 6, "b", null, null, "error from b");
+        assertEquals("[warning from a]", messages(capture.query("a", 4, null)).toString());
+        assertEquals("[warning from a, error from b]", messages(capture.query(null, 5, null)).toString());
+        assertEquals("[debug from a, error from b]",
+                messages(capture.query(null, 0, Pattern.compile("^(debug|error)"))).toString());
+    }
+
+    @Test
+    public void truncates() {
+        LogCapture capture = new LogCapture(2, 4);
+        capture.write(0, 3, "tag", null, null, "0123456789");
+        assertEquals("[0123\u2026]", messages(capture.query(null, 0, null)).toString());
+    }
+
+    @Test
+    public void truncatesWholeCharacters() {
+        LogCapture capture = new LogCapture(2, 4);
+        /* U+1F600 is a surrogate pair straddling the limit */
+        capture.write(0, 3, "tag", null, null, "012\ud83d\ude00");
+        assertEquals("[012\u2026]", messages(capture.query(null, 0, null)).toString());
+    }
+
+    @Test
+    public void clear() {
+        LogCapture capture = new LogCapture(2, 4);
+        capture.write(0, 3, "tag", null, null, "m");
+        capture.clear();
+        assertTrue(capture.query(null, 0, null).isEmpty());
+    }
+}
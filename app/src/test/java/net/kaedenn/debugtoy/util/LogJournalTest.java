@@ -0,0 +1,106 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogJournalTest {
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : LogJournal.listSegments(mDirectory)) {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    private List<String> decode() throws IOException {
+        List<String> lines = new ArrayList<>();
+        /* Strip the timestamp */
+        LogJournal.decode(mDirectory, line -> lines.add(line.substring(line.indexOf(' ', 6) + 1)));
+        return lines;
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        LogJournal journal = new LogJournal(mDirectory, 4096, 2);
+        journal.write(0L, 3, "tag", "int %d long %d", new Object[]{42, 1L << 40}, null);
+        journal.write(0L, 4, "tag", "%s %b %c %.1f %.2f", new Object[]{"str", true, 'c', 1.5f, 2.25}, null);
+        journal.write(0L, 6, "other", "null %s", new Object[]{null}, null);
+        journal.write(0L, 5, "tag", "no args", new Object[0], null);
+        journal.write(0L, 3, "tag", "pid=1 msg=\"100%\"", null, null);
+        journal.close();
+        List<String> lines = decode();
+        assertEquals(5, lines.size());
+        assertEquals("D/tag: int 42 long 1099511627776", lines.get(0));
+        assertEquals("I/tag: str true c 1.5 2.25", lines.get(1));
+        assertEquals("E/other: null null", lines.get(2));
+        assertEquals("W/tag: no args", lines.get(3));
+        assertEquals("D/tag: pid=1 msg=\"100%\"", lines.get(4));
+    }
+
+    @Test
+    public void rotation() throws IOException {
+        LogJournal journal = new LogJournal(mDirectory, 1024, 3);
+        for (int i = 0; i < 500; ++i) {
+            journal.write(0L, 3, "tag", "message %d", new Object[]{i}, null);
+        }
+        journal.close();
+        assertEquals(3, LogJournal.listSegments(mDirectory).size());
+        List<String> lines = decode();
+        /* Only the newest segments survive, and they're contiguous */
+        assertTrue(lines.size() > 0 && lines.size() < 500);
+        assertEquals("D/tag: message 499", lines.get(lines.size() - 1));
+        int first = 500 - lines.size();
+        for (int i = 0; i < lines.size(); ++i) {
+            assertEquals("D/tag: message " + (first + i), lines.get(i));
+        }
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        LogJournal journal = new LogJournal(mDirectory, 1024, 4);
+        journal.write(0L, 3, "tag", "first", new Object[0], null);
+        journal.close();
+        journal = new LogJournal(mDirectory, 1024, 4);
+        journal.write(0L, 3, "tag", "second", new Object[0], null);
+        journal.close();
+        assertEquals("[D/tag: first, D/tag: second]", decode().toString());
+    }
+
+    @Test
+    public void oversized() throws IOException {
+        LogJournal journal = new LogJournal(mDirectory, 1024, 2);
+        Object[] args = {new String(new char[2000]).replace('\0', 'x')};
+        journal.write(0L, 3, "tag", "%s", args, null);
+        journal.write(0L, 3, "tag", "after", new Object[0], null);
+        journal.close();
+        assertEquals(1, journal.getDropped());
+        assertEquals("[D/tag: after]", decode().toString());
+    }
+
+    @Test
+    public void longStringsKeepWholeCharacters() throws IOException {
+        LogJournal journal = new LogJournal(mDirectory, 16384, 2);
+        String x = new String(new char[4095]).replace('\0', 'x');
+        journal.write(0L, 3, "tag", "%s", new Object[]{x + "\u00e9\u00e9"}, null);
+        journal.close();
+        assertEquals("[D/tag: " + x + "]", decode().toString());
+    }
+}
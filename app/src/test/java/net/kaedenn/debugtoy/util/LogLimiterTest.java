@@ -0,0 +1,69 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LogLimiterTest {
+
+    /* Controllable clock for the rate limit tests */
+    private long mNow = 0;
+
+    private LogLimiter perSecond(int n) {
+        return new LogLimiter(n, 0, () -> mNow);
+    }
+
+    @Test
+    public void burst() {
+        LogLimiter limiter = perSecond(3);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getSuppressed());
+    }
+
+    @Test
+    public void refill() {
+        LogLimiter limiter = perSecond(2);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        /* One token every half second */
+        mNow += TimeUnit.MILLISECONDS.toNanos(500);
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        /* The bucket never holds more than two tokens */
+        mNow += TimeUnit.SECONDS.toNanos(10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(3, limiter.takeSuppressed());
+        assertEquals(0, limiter.getSuppressed());
+    }
+
+    @Test
+    public void sample() {
+        LogLimiter limiter = LogLimiter.sample(3);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 7; ++i) {
+            sb.append(limiter.tryAcquire() ? 'T' : 'F');
+        }
+        assertEquals("TFFTFFT", sb.toString());
+        assertEquals(4, limiter.getSuppressed());
+    }
+
+    @Test
+    public void bind() {
+        LogLimiter limiter = perSecond(1);
+        assertNull(limiter.getTag());
+        /* Only the first binding asks to be registered */
+        assertTrue(limiter.bind("tag", 3));
+        assertFalse(limiter.bind("other", 5));
+        assertEquals("other", limiter.getTag());
+        assertEquals(5, limiter.getLevel());
+    }
+}
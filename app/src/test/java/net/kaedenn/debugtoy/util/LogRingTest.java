@@ -0,0 +1,96 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogRingTest {
+
+    private static List<String> drainFormats(LogRing ring) {
+        List<String> formats = new ArrayList<>();
+        ring.drain((time, level, tag, format, args) -> formats.add(format), Integer.MAX_VALUE);
+        return formats;
+    }
+
+    @Test
+    public void capacity() {
+        assertEquals(2, new LogRing(2, LogRing.Overflow.DROP).capacity());
+        assertEquals(8, new LogRing(5, LogRing.Overflow.DROP).capacity());
+        assertEquals(1024, new LogRing(1024, LogRing.Overflow.DROP).capacity());
+    }
+
+    @Test
+    public void fifo() {
+        LogRing ring = new LogRing(4, LogRing.Overflow.DROP);
+        assertTrue(ring.isEmpty());
+        Object[] args = {1, "two"};
+        assertTrue(ring.offer(10L, 3, 7, "first", args));
+        assertTrue(ring.offer(20L, 4, 8, "second", null));
+        assertFalse(ring.isEmpty());
+        assertTrue(ring.poll((time, level, tag, format, a) -> {
+            assertEquals(10L, time);
+            assertEquals(3, level);
+            assertEquals(7, tag);
+            assertEquals("first", format);
+            assertSame(args, a);
+        }));
+        assertEquals("[second]", drainFormats(ring).toString());
+        assertTrue(ring.isEmpty());
+        assertFalse(ring.poll(null));
+    }
+
+    @Test
+    public void drop() {
+        LogRing ring = new LogRing(4, LogRing.Overflow.DROP);
+        for (int i = 0; i < 6; ++i) {
+            ring.offer(i, 0, 0, "m" + i, null);
+        }
+        assertEquals(2, ring.getDropped());
+        assertEquals("[m0, m1, m2, m3]", drainFormats(ring).toString());
+    }
+
+    @Test
+    public void overwrite() {
+        LogRing ring = new LogRing(4, LogRing.Overflow.OVERWRITE);
+        for (int i = 0; i < 6; ++i) {
+            assertTrue(ring.offer(i, 0, 0, "m" + i, null));
+        }
+        assertEquals(0, ring.getDropped());
+        assertEquals(2, ring.getOverwritten());
+        assertEquals("[m2, m3, m4, m5]", drainFormats(ring).toString());
+    }
+
+    @Test
+    public void multipleProducers() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 10000;
+        LogRing ring = new LogRing(64, LogRing.Overflow.BLOCK);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; ++p) {
+            final int tag = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; ++i) {
+                    ring.offer(i, 0, tag, null, null);
+                }
+            });
+            threads[p].start();
+        }
+        /* Records from each producer must arrive complete and in order */
+        final long[] next = new long[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            received += ring.drain((time, level, tag, format, args) -> {
+                assertEquals(next[tag], time);
+                ++next[tag];
+            }, 128);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.getDropped());
+    }
+}
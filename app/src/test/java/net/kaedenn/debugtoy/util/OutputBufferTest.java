@@ -0,0 +1,54 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutputBufferTest {
+
+    @Test
+    public void passesLinesWhileAttached() {
+        List<CharSequence> shown = new ArrayList<>();
+        OutputBuffer buffer = new OutputBuffer(shown::add, 10, 100, true);
+        buffer.accept("a");
+        buffer.accept("b");
+        assertEquals(2, shown.size());
+        assertEquals(0, buffer.getHeld());
+    }
+
+    @Test
+    public void holdsLinesUntilAttached() {
+        List<CharSequence> shown = new ArrayList<>();
+        OutputBuffer buffer = new OutputBuffer(shown::add, 10, 100, false);
+        buffer.accept("a");
+        buffer.accept("b");
+        assertTrue(shown.isEmpty());
+        assertEquals(2, buffer.getHeld());
+        assertEquals(2, buffer.attach());
+        buffer.accept("c");
+        assertEquals("[a, b, c]", shown.toString());
+        assertEquals(0, buffer.getHeld());
+        buffer.detach();
+        buffer.accept("d");
+        assertEquals(3, shown.size());
+        assertEquals(1, buffer.getHeld());
+    }
+
+    @Test
+    public void keepsNewestLines() {
+        List<CharSequence> shown = new ArrayList<>();
+        OutputBuffer buffer = new OutputBuffer(shown::add, 2, 100, false);
+        for (int i = 0; i < 5; ++i) {
+            buffer.accept("line" + i);
+        }
+        assertEquals(3, buffer.getDiscarded());
+        buffer.attach();
+        assertEquals(3, shown.size());
+        assertEquals("(3 earlier lines were discarded)", shown.get(0).toString());
+        assertEquals("line3", shown.get(1).toString());
+        assertEquals("line4", shown.get(2).toString());
+    }
+}
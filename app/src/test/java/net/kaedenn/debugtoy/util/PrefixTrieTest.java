@@ -0,0 +1,77 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PrefixTrieTest {
+
+    private static PrefixTrie<String> trie(String... keys) {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        for (String key : keys) {
+            trie.put(key, key.toUpperCase());
+        }
+        return trie;
+    }
+
+    @Test
+    public void putGetRemove() {
+        PrefixTrie<String> trie = trie("log", "logs");
+        assertEquals(2, trie.size());
+        assertEquals("LOG", trie.get("log"));
+        assertNull(trie.get("lo"));
+        assertEquals("LOG", trie.put("log", "x"));
+        assertEquals(2, trie.size());
+        assertEquals("x", trie.remove("log"));
+        assertNull(trie.remove("log"));
+        assertEquals(1, trie.size());
+        assertNull(trie.get("log"));
+        assertEquals("LOGS", trie.get("logs"));
+        assertEquals("LOGS", trie.remove("logs"));
+        assertEquals(0, trie.size());
+        assertEquals(Collections.emptyList(), trie.complete(""));
+    }
+
+    @Test
+    public void resolve() {
+        PrefixTrie<String> trie = trie("log", "logs", "logdump", "help");
+        assertEquals("HELP", trie.resolve("h"));
+        assertEquals("LOG", trie.resolve("log"));
+        assertEquals("LOGS", trie.resolve("logs"));
+        assertEquals("LOGDUMP", trie.resolve("logd"));
+        assertNull(trie.resolve("lo"));
+        assertNull(trie.resolve("x"));
+        assertNull(trie.resolve("helpme"));
+    }
+
+    @Test
+    public void extend() {
+        PrefixTrie<String> trie = trie("logs", "logdump", "help");
+        assertEquals("log", trie.extend("l"));
+        assertEquals("logdump", trie.extend("logd"));
+        assertEquals("help", trie.extend("help"));
+        assertEquals("x", trie.extend("x"));
+        assertEquals("", trie.extend(""));
+    }
+
+    @Test
+    public void abbreviate() {
+        PrefixTrie<String> trie = trie("log", "logs", "logdump", "help");
+        assertEquals("h", trie.abbreviate("help"));
+        assertEquals("logd", trie.abbreviate("logdump"));
+        assertEquals("logs", trie.abbreviate("logs"));
+        assertEquals("log", trie.abbreviate("log"));
+        assertNull(trie.abbreviate("lo"));
+    }
+
+    @Test
+    public void completeInOrder() {
+        PrefixTrie<String> trie = trie("title", "toast", "!", "logs", "log", "html-title");
+        assertEquals(Arrays.asList("!", "html-title", "log", "logs", "title", "toast"), trie.complete(""));
+        assertEquals(Arrays.asList("log", "logs"), trie.complete("lo"));
+        assertEquals(Collections.emptyList(), trie.complete("z"));
+    }
+}
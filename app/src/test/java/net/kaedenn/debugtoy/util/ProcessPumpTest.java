@@ -0,0 +1,99 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProcessPumpTest {
+
+    /** Process that has already written its output and exited. */
+    private static final class FinishedProcess extends Process {
+        private final InputStream mStdout;
+        private final InputStream mStderr;
+        private final int mExitCode;
+
+        FinishedProcess(String stdout, String stderr, int exitCode) {
+            mStdout = new ByteArrayInputStream(stdout.getBytes(StandardCharsets.UTF_8));
+            mStderr = new ByteArrayInputStream(stderr.getBytes(StandardCharsets.UTF_8));
+            mExitCode = exitCode;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return mStdout;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return mStderr;
+        }
+
+        @Override
+        public int waitFor() {
+            return mExitCode;
+        }
+
+        @Override
+        public int exitValue() {
+            return mExitCode;
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    private static List<String> run(ProcessPump pump, Process p, ProcessPump.Result[] result) throws InterruptedException {
+        List<String> lines = new ArrayList<>();
+        result[0] = pump.run(p, 10, TimeUnit.SECONDS, (stderr, line) -> lines.add((stderr ? "!" : ">") + line));
+        return lines;
+    }
+
+    @Test
+    public void lines() throws InterruptedException {
+        ProcessPump.Result[] result = new ProcessPump.Result[1];
+        List<String> lines = run(new ProcessPump(16, 4, 1 << 20),
+                new FinishedProcess("one\r\ntwo\n\nlast", "oops\n", 3), result);
+        assertTrue(lines.remove("!oops"));
+        assertEquals("[>one, >two, >, >last]", lines.toString());
+        assertEquals(3, result[0].mExitCode);
+        assertFalse(result[0].mTimedOut);
+        assertFalse(result[0].mTruncated);
+        assertEquals(19, result[0].mBytes);
+    }
+
+    @Test
+    public void longLinesAreSplit() throws InterruptedException {
+        ProcessPump.Result[] result = new ProcessPump.Result[1];
+        List<String> lines = run(new ProcessPump(4, 2, 1 << 20),
+                new FinishedProcess("0123456789\n", "", 0), result);
+        assertEquals("[>0123, >4567, >89]", lines.toString());
+    }
+
+    @Test
+    public void byteLimit() throws InterruptedException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append("line ").append(i).append('\n');
+        }
+        ProcessPump.Result[] result = new ProcessPump.Result[1];
+        List<String> lines = run(new ProcessPump(64, 8, 16), new FinishedProcess(sb.toString(), "", 0), result);
+        assertEquals("[>line 0, >line 1, >li]", lines.toString());
+        assertTrue(result[0].mTruncated);
+        assertEquals(sb.length(), result[0].mBytes);
+    }
+}
@@ -0,0 +1,62 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScriptReaderTest {
+
+    private static List<String> read(String text, List<Integer> numbers) throws IOException {
+        List<String> commands = new ArrayList<>();
+        try (ScriptReader reader = new ScriptReader(new StringReader(text))) {
+            String command;
+            while ((command = reader.next()) != null) {
+                commands.add(command);
+                numbers.add(reader.getLineNumber());
+            }
+        }
+        return commands;
+    }
+
+    @Test
+    public void skipsBlankLinesAndComments() throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        List<String> commands = read("# setup\n\nenv\n   \n  # indented\n  stats -c  \n", numbers);
+        assertEquals(2, commands.size());
+        assertEquals("env", commands.get(0));
+        assertEquals("stats -c", commands.get(1));
+        assertEquals(3, (int) numbers.get(0));
+        assertEquals(6, (int) numbers.get(1));
+    }
+
+    @Test
+    public void joinsContinuedLines() throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        List<String> commands = read("logs -t main \\\n  -l E\necho a\\\\\nlast \\", numbers);
+        assertEquals(3, commands.size());
+        assertEquals("logs -t main   -l E", commands.get(0));
+        assertEquals("echo a\\\\", commands.get(1));
+        assertEquals("last", commands.get(2));
+        assertEquals(1, (int) numbers.get(0));
+        assertEquals(3, (int) numbers.get(1));
+        assertEquals(4, (int) numbers.get(2));
+    }
+
+    @Test
+    public void ignoresByteOrderMark() throws IOException {
+        List<String> commands = read("\uFEFFhelp\n", new ArrayList<>());
+        assertEquals(1, commands.size());
+        assertEquals("help", commands.get(0));
+    }
+
+    @Test
+    public void emptyScript() throws IOException {
+        assertTrue(read("", new ArrayList<>()).isEmpty());
+        assertTrue(read("\n# nothing\n", new ArrayList<>()).isEmpty());
+    }
+}
@@ -30,4 +30,43 @@ public class StrTest {
         assertEquals("\"Hi mom!\"", Str.escape("Hi mom!"));
         assertEquals("\"Hi\\nmom!\"", Str.escape("Hi\nmom!"));
     }
+
+    @Test
+    public void tryParseInteger() {
+        assertEquals(Integer.valueOf(42), Str.tryParseInteger("42"));
+        assertEquals(Integer.valueOf(-42), Str.tryParseInteger("-42"));
+        assertEquals(Integer.valueOf(7), Str.tryParseInteger("+7"));
+        assertEquals(Integer.valueOf(255), Str.tryParseInteger("ff", 16));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), Str.tryParseInteger("2147483647"));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), Str.tryParseInteger("-2147483648"));
+        assertNull(Str.tryParseInteger("2147483648"));
+        assertNull(Str.tryParseInteger("-2147483649"));
+        assertNull(Str.tryParseInteger("99999999999999999999"));
+        assertNull(Str.tryParseInteger(""));
+        assertNull(Str.tryParseInteger("-"));
+        assertNull(Str.tryParseInteger(" 1"));
+        assertNull(Str.tryParseInteger("1.5"));
+        assertNull(Str.tryParseInteger(null));
+    }
+
+    @Test
+    public void tryParseDouble() {
+        assertTrue(Str.isDecimal("1"));
+        assertTrue(Str.isDecimal("-1.5e3"));
+        assertTrue(Str.isDecimal(".5"));
+        assertTrue(Str.isDecimal("5."));
+        assertFalse(Str.isDecimal("."));
+        assertFalse(Str.isDecimal("1e"));
+        assertFalse(Str.isDecimal("-t"));
+        assertFalse(Str.isDecimal("NaN"));
+        assertEquals(Double.valueOf(-1500), Str.tryParseDouble(" -1.5e3 "));
+        assertEquals(Float.valueOf(0.25f), Str.tryParseFloat("0.25"));
+        assertNull(Str.tryParseDouble("0x10"));
+        assertNull(Str.tryParseFloat("abc"));
+        /* Non-ASCII digits, which Double.parseDouble rejects */
+        assertFalse(Str.isDecimal("\u0661"));
+        assertFalse(Str.isDecimal("1.\u0665"));
+        assertNull(Str.tryParseDouble("\u0661"));
+        assertNull(Str.tryParseFloat("\u0662.5"));
+    }
 }
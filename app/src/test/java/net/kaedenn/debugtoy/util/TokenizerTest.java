@@ -0,0 +1,106 @@
+package net.kaedenn.debugtoy.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class TokenizerTest {
+
+    @Test
+    public void whitespace() {
+        Tokenizer t = Tokenizer.tokenize("  one two\tthree  ");
+        assertNull(t.getError());
+        assertEquals(Arrays.asList("one", "two", "three"), t.getWords());
+        assertEquals(Collections.emptyList(), Tokenizer.tokenize("   ").getWords());
+        assertEquals(Collections.emptyList(), Tokenizer.tokenize(null).getWords());
+    }
+
+    @Test
+    public void quoting() {
+        Tokenizer t = Tokenizer.tokenize("'a b' \"c \\\"d\\\" \\\\e\" f\\ g -t\"my tag\" \"\" 'x\\y'");
+        assertNull(t.getError());
+        assertEquals(Arrays.asList("a b", "c \"d\" \\e", "f g", "-tmy tag", "", "x\\y"), t.getWords());
+    }
+
+    @Test
+    public void rest() {
+        Tokenizer t = Tokenizer.tokenize("-n 5 echo 'hi there'  ");
+        assertEquals(4, t.size());
+        assertEquals("echo 'hi there'", t.rest(2));
+        assertEquals("", t.rest(4));
+    }
+
+    @Test
+    public void errors() {
+        assertEquals("unterminated ' starting at column 4", Tokenizer.tokenize("ab 'cd").getError());
+        assertEquals("unterminated \" starting at column 2", Tokenizer.tokenize("a\"b c").getError());
+        assertEquals("trailing \\", Tokenizer.tokenize("ab\\").getError());
+        assertEquals(Collections.singletonList("ab"), Tokenizer.tokenize("ab 'cd").getWords());
+    }
+
+    @Test
+    public void splitOutsideQuotes() {
+        assertEquals(Arrays.asList("env ", " grep 'a|b' ", " head"), Tokenizer.split("env | grep 'a|b' | head", '|'));
+        assertEquals(Arrays.asList("a \\| \"b|c\" ", ""), Tokenizer.split("a \\| \"b|c\" |", '|'));
+        assertEquals(Collections.singletonList(""), Tokenizer.split("", '|'));
+        assertEquals(Arrays.asList("! a ", "", " b"), Tokenizer.split("! a || b", '|'));
+    }
+
+    private static String name(String piece) {
+        return piece.trim().split("\\s+")[0];
+    }
+
+    /* Split a pipeline the way the debug controller does, given schemas */
+    private static List<String> pipeline(String line) {
+        Map<String, ArgSchema> commands = new HashMap<>();
+        commands.put("!", new ArgSchema().rest("command", "the command line"));
+        commands.put("env", new ArgSchema());
+        commands.put("tail", new ArgSchema().positional(ArgSchema.Param.integer("count", 1, 100).optional()));
+        commands.put("watch", new ArgSchema().option("-n", ArgSchema.Param.decimal("seconds", 0.1, 10))
+                .line("command", "the command to run"));
+        return Tokenizer.splitPipeline(line, piece -> commands.containsKey(name(piece)) ? piece : null,
+                piece -> commands.get(name(piece)).isRaw());
+    }
+
+    @Test
+    public void splitPipeline() {
+        assertEquals(Arrays.asList("env ", " tail 5"), pipeline("env | tail 5"));
+        assertEquals(Arrays.asList("env ", " tail 5| sort -n"), pipeline("env | tail 5| sort -n"));
+        /* Shell pipelines reach the shell unchanged */
+        assertEquals(Collections.singletonList("! dmesg | tail -5"), pipeline("! dmesg | tail -5"));
+        assertEquals(Collections.singletonList("watch -n 1 env | tail 3"), pipeline("watch -n 1 env | tail 3"));
+        assertEquals(Arrays.asList("env ", " ! cat | tail -5"), pipeline("env | ! cat | tail -5"));
+        assertTrue(pipeline(null).isEmpty());
+        /* A line not starting with a command */
+        assertEquals(Arrays.asList(null, " env"), pipeline("nope | env"));
+        assertEquals(Collections.singletonList(null), pipeline("nope | x"));
+    }
+
+    @Test
+    public void splitPipelineParsesOnce() {
+        int[] parses = {0};
+        Function<String, String> parse = piece -> {
+            ++parses[0];
+            return name(piece).equals("nope") ? null : piece;
+        };
+        assertEquals(Arrays.asList("env ", " tail 5"), Tokenizer.splitPipeline("env | tail 5", parse, p -> false));
+        assertEquals(2, parses[0]);
+        /* A joined command is parsed again, once */
+        parses[0] = 0;
+        assertEquals(Collections.singletonList("env | nope | nope"),
+                Tokenizer.splitPipeline("env | nope | nope", parse, p -> false));
+        assertEquals(4, parses[0]);
+        /* Nothing after a verbatim command is parsed */
+        parses[0] = 0;
+        assertEquals(Collections.singletonList("! a | b | c"),
+                Tokenizer.splitPipeline("! a | b | c", parse, p -> name(p).equals("!")));
+        assertEquals(2, parses[0]);
+    }
+}
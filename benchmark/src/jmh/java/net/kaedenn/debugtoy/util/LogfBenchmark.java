@@ -0,0 +1,117 @@
+package net.kaedenn.debugtoy.util;
+
+import android.util.Log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of the {@code Logf} entry points.
+ *
+ * Each benchmark logs one message through a different entry point. With
+ * {@code enabled=false} the global level is off, which measures the cost of
+ * a call that is filtered; with {@code enabled=true} the message is formatted
+ * and written to the stand-in {@code Log}.
+ *
+ * {@code format} is a baseline: the bare {@code String.format} call that the
+ * enabled paths all end with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LogfBenchmark {
+    private static final String LOG_TAG = "bench";
+    static {
+        Logf.getInstance().add(LogfBenchmark.class, LOG_TAG);
+    }
+
+    private static final Logf.Logger log = Logf.forClass(LogfBenchmark.class);
+
+    private static final LogLimiter SAMPLE = LogLimiter.sample(100);
+
+    /** Nested classes resolve to the tag of their outermost class. */
+    static final class Nested {
+        static final class Inner {
+            static void log(int value) {
+                Logf.dc("nested %d", value);
+            }
+        }
+    }
+
+    /** Never registered, so resolution ends in a placeholder. */
+    static final class Unregistered {
+        static void log(int value) {
+            Logf.dc("unregistered %d", value);
+        }
+    }
+
+    @Param({"true", "false"})
+    public boolean enabled;
+
+    /* Fields rather than constants, so the arguments aren't folded */
+    private int mValue = 42;
+    private String mName = "name";
+
+    @Setup
+    public void setup() {
+        Logf.setMinLevel(enabled ? Log.VERBOSE : Logf.LEVEL_OFF);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Logf.setMinLevel(Log.VERBOSE);
+    }
+
+    @Benchmark
+    public String format() {
+        return String.format("value %d name %s", mValue, mName);
+    }
+
+    @Benchmark
+    public void taggedInt() {
+        Logf.d(LOG_TAG, "value %d", mValue);
+    }
+
+    @Benchmark
+    public void taggedVarargs() {
+        Logf.d(LOG_TAG, "value %d name %s", mValue, mName);
+    }
+
+    @Benchmark
+    public void caller() {
+        Logf.dc("caller %d", mValue);
+    }
+
+    @Benchmark
+    public void callerNested() {
+        Nested.Inner.log(mValue);
+    }
+
+    @Benchmark
+    public void callerUnregistered() {
+        Unregistered.log(mValue);
+    }
+
+    @Benchmark
+    public void handle() {
+        log.d("handle %d", mValue);
+    }
+
+    @Benchmark
+    public void handleSampled() {
+        log.d(SAMPLE, "sampled %d", mValue);
+    }
+
+    @Benchmark
+    public void event() {
+        Logf.event(LOG_TAG).kv("value", mValue).kv("name", mName).emit();
+    }
+}
@@ -0,0 +1,49 @@
+package android.util;
+
+/** Stand-in for {@code android.util.Log} on a desktop JVM.
+ *
+ * Provides only what the logging utilities use. Messages are not printed;
+ * their lengths are accumulated instead, so that the benchmarks measure the
+ * cost of producing a message rather than the cost of console output, while
+ * still keeping the JIT from discarding the message.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    /* Total length of every message "printed" */
+    private static volatile long sWritten = 0;
+
+    private Log() {
+    }
+
+    /** Get the total length of every message printed so far.
+     *
+     * @return The number of characters printed.
+     */
+    public static long getWritten() {
+        return sWritten;
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return level >= INFO;
+    }
+
+    public static int println(int priority, String tag, String msg) {
+        sWritten += msg.length();
+        return msg.length();
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println(ERROR, tag, msg + '\n' + tr);
+    }
+}